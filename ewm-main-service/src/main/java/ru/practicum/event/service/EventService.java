@@ -6,7 +6,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import ru.practicum.HitClient;
+import ru.practicum.AsyncHitClient;
 import ru.practicum.HitInputDto;
 import ru.practicum.HitOutputDto;
 import ru.practicum.category.model.Category;
@@ -35,6 +35,7 @@ import ru.practicum.utils.RequestMapper;
 import javax.servlet.http.HttpServletRequest;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static ru.practicum.event.dto.UpdateEventAdminDto.StateAction.PUBLISH_EVENT;
 import static ru.practicum.event.dto.UpdateEventAdminDto.StateAction.REJECT_EVENT;
@@ -51,7 +52,7 @@ public class EventService {
     private final LocationRepository locationRepository;
     private final CategoryRepository categoryRepository;
     private final RequestRepository requestRepository;
-    private final HitClient hitClient;
+    private final AsyncHitClient hitClient;
     private final UnionService unionService;
     @Value("${app.name}")
     private String appName;
@@ -163,11 +164,12 @@ public class EventService {
         }
         String uri = request.getRequestURI();
         String ip = request.getRemoteAddr();
-        sendStats(uri, ip);
         List<Event> events = Collections.singletonList(event);
-        List<HitOutputDto> hits = unionService.getViews(events);
-        Map<Long, Long> views = StatUtil.mapHitsToViewCountByEventId(hits);
-        return EventMapper.toEventFullDto(event, views.getOrDefault(event.getId(), 0L));
+        CompletableFuture<List<HitOutputDto>> hits = unionService.getViewsAsync(events, sendStats(uri, ip));
+        EventFullDto result = EventMapper.toEventFullDto(event, 0L);
+        Map<Long, Long> views = StatUtil.mapHitsToViewCountByEventId(hits.join());
+        result.setViews(views.getOrDefault(event.getId(), 0L));
+        return result;
     }
 
     public List<EventShortDto> findAllEvents(String text, List<Long> categories, Boolean paid,
@@ -179,13 +181,13 @@ public class EventService {
         }
         String uri = request.getRequestURI();
         String ip = request.getRemoteAddr();
+        sendStats(uri, ip);
         PageRequest pageRequest = PageRequest.of(from / size, size);
         List<Event> events = eventRepository.findEventsByPublic(
                 text, categories, paid, rangeStart, rangeEnd, onlyAvailable, sort, pageRequest);
-        sendStats(uri, ip);
-        List<HitOutputDto> hits = unionService.getViews(events);
-        Map<Long, Long> views = StatUtil.mapHitsToViewCountByEventId(hits);
+        CompletableFuture<List<HitOutputDto>> hits = unionService.getViewsAsync(events);
         List<EventShortDto> result = EventMapper.toEventShortDtoList(events);
+        Map<Long, Long> views = StatUtil.mapHitsToViewCountByEventId(hits.join());
         for (EventShortDto event : result) {
             event.setViews(views.get(event.getId()));
         }
@@ -198,9 +200,9 @@ public class EventService {
         PageRequest pageRequest = PageRequest.of(from / size, size);
         List<Event> events = eventRepository.findAllEventsByAdmin(
                 users, states, categories, rangeStart, rangeEnd, pageRequest);
-        List<HitOutputDto> hits = unionService.getViews(events);
-        Map<Long, Long> views = StatUtil.mapHitsToViewCountByEventId(hits);
+        CompletableFuture<List<HitOutputDto>> hits = unionService.getViewsAsync(events);
         List<EventFullDto> result = EventMapper.toEventFullDtoList(events);
+        Map<Long, Long> views = StatUtil.mapHitsToViewCountByEventId(hits.join());
         for (EventFullDto event : result) {
             event.setViews(views.getOrDefault(event.getId(), 0L));
         }
@@ -352,13 +354,20 @@ public class EventService {
         }
     }
 
-    private void sendStats(String uri, String ip) {
+    /**
+     * Просмотр уходит без ожидания ответа; future завершается, когда сервер статистики его принял или отказал,
+     * и никогда не завершается ошибкой.
+     */
+    private CompletableFuture<Void> sendStats(String uri, String ip) {
         HitInputDto hitDto = HitInputDto.builder()
                 .app(appName)
                 .uri(uri)
                 .ip(ip)
                 .timestamp(LocalDateTime.now())
                 .build();
-        hitClient.addHit(hitDto);
+        return hitClient.addHit(hitDto).exceptionally(e -> {
+            log.warn("Не удалось отправить просмотр {}: {}", uri, e.getMessage());
+            return null;
+        });
     }
 }
@@ -0,0 +1,33 @@
+package ru.practicum.utils;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * Ставит заголовок X-Views-Stale на ответы, просмотры в которых взяты из последних известных значений.
+ */
+@RestControllerAdvice
+public class StaleViewsAdvice implements ResponseBodyAdvice<Object> {
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (request instanceof ServletServerHttpRequest && ((ServletServerHttpRequest) request).getServletRequest()
+                .getAttribute(UnionService.STALE_VIEWS_ATTRIBUTE) != null) {
+            response.getHeaders().set(UnionService.STALE_VIEWS_HEADER, "true");
+        }
+        return body;
+    }
+}
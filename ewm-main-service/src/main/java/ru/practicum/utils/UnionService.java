@@ -4,13 +4,19 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import ru.practicum.HitClient;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import ru.practicum.AsyncHitClient;
 import ru.practicum.HitOutputDto;
 import ru.practicum.event.model.Event;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @Service
@@ -18,25 +24,74 @@ import java.util.stream.Collectors;
 @Transactional(readOnly = true)
 @RequiredArgsConstructor
 public class UnionService {
-    private final HitClient hitClient;
+    public static final String STALE_VIEWS_HEADER = "X-Views-Stale";
+    static final String STALE_VIEWS_ATTRIBUTE = UnionService.class.getName() + ".staleViews";
+    private static final int LAST_KNOWN_VIEWS_SIZE = 10_000;
+    private final AsyncHitClient hitClient;
+    private final Map<String, Long> lastKnownViews = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > LAST_KNOWN_VIEWS_SIZE;
+                }
+            });
 
     public List<HitOutputDto> getViews(List<Event> events) {
+        return getViewsAsync(events).join();
+    }
+
+    /**
+     * Запрос просмотров уходит сразу, а ответ ждётся только при обращении к future, так что вызывающий может
+     * тем временем собирать ответ из базы. Если сервер статистики не ответил или цепь к нему разомкнута,
+     * возвращаются последние известные числа просмотров, а для неизвестных событий — нули; ответ тогда
+     * помечается заголовком X-Views-Stale.
+     */
+    public CompletableFuture<List<HitOutputDto>> getViewsAsync(List<Event> events) {
+        return getViewsAsync(events, CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * То же, но запрос уходит только после завершения after, например после отправки просмотра этим же запросом.
+     * Вызывать из потока запроса: пометка устаревших просмотров привязывается к нему.
+     */
+    public CompletableFuture<List<HitOutputDto>> getViewsAsync(List<Event> events, CompletableFuture<?> after) {
         List<Long> eventIds = events.stream()
                 .map(Event::getId)
                 .collect(Collectors.toList());
         if (eventIds.isEmpty()) {
-            return Collections.emptyList();
+            return CompletableFuture.completedFuture(Collections.emptyList());
         }
         LocalDateTime startDate = getEarliestPublicationDate(events);
         if (startDate == null) {
-            return Collections.emptyList();
+            return CompletableFuture.completedFuture(Collections.emptyList());
         }
         List<String> uris = StatUtil.makeUrisWithEventIds(eventIds);
-        List<HitOutputDto> response = hitClient.getHitStats(startDate, LocalDateTime.now(), uris, true);
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        CompletableFuture<List<HitOutputDto>> response = after.thenCompose(ignored -> hitClient.getHitStats(
+                startDate, LocalDateTime.now(), uris, true)).handle((hits, e) -> {
+                    if (e == null) {
+                        hits.forEach(hit -> lastKnownViews.put(hit.getUri(), hit.getHits()));
+                        return hits;
+                    }
+                    log.warn("Статистика недоступна, отданы последние известные просмотры: {}", e.getMessage());
+                    if (request != null) {
+                        request.setAttribute(STALE_VIEWS_ATTRIBUTE, true, RequestAttributes.SCOPE_REQUEST);
+                    }
+                    return getLastKnownViews(uris);
+                });
         log.info("Отправлен запрос на получение статистики {}.", uris);
         return response;
     }
 
+    private List<HitOutputDto> getLastKnownViews(List<String> uris) {
+        List<HitOutputDto> hits = new ArrayList<>();
+        for (String uri : uris) {
+            Long views = lastKnownViews.get(uri);
+            hits.add(new HitOutputDto(null, uri, views != null ? views : 0L));
+        }
+        return hits;
+    }
+
     private LocalDateTime getEarliestPublicationDate(List<Event> events) {
         LocalDateTime earliestDate = null;
         for (Event event : events) {
@@ -0,0 +1,36 @@
+package ru.practicum.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность записи одного просмотра в уже заполненное хранилище. Число потоков задаётся -t.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AddHitBenchmark {
+
+    @State(Scope.Thread)
+    public static class HitSource {
+        private final Random random = new Random();
+    }
+
+    @Benchmark
+    public void addHit(StatsServerState state, HitSource source) {
+        state.hitService.addHit(state.dataset.hit(source.random, LocalDateTime.now()));
+    }
+}
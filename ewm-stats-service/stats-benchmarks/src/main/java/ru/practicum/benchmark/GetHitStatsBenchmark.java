@@ -0,0 +1,39 @@
+package ru.practicum.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.HitOutputDto;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Задержка /stats за весь период данных для четырёх видов запроса: с фильтром по uri и без, по всем просмотрам
+ * и по уникальным ip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GetHitStatsBenchmark {
+    @Param({"true", "false"})
+    public boolean filtered;
+    @Param({"false", "true"})
+    public boolean unique;
+
+    @Benchmark
+    public List<HitOutputDto> getHitStats(StatsServerState state) {
+        return state.hitService.getHitStats(state.start, state.end, filtered ? state.uriFilter : null, unique,
+                false);
+    }
+}
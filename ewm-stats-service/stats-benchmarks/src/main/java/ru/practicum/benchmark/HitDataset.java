@@ -0,0 +1,54 @@
+package ru.practicum.benchmark;
+
+import ru.practicum.HitInputDto;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Синтетические просмотры: uri и ip выбираются равномерно из заданного числа, время — равномерно по days суткам
+ * до end.
+ */
+class HitDataset {
+    static final String APP = "ewm-main-service";
+    private final int uris;
+    private final int ips;
+    private final long seconds;
+
+    HitDataset(int uris, int ips, int days) {
+        this.uris = uris;
+        this.ips = ips;
+        this.seconds = ChronoUnit.DAYS.getDuration().getSeconds() * days;
+    }
+
+    HitInputDto hit(Random random, LocalDateTime end) {
+        return HitInputDto.builder()
+                .app(APP)
+                .uri(uri(random.nextInt(uris)))
+                .ip(ip(random.nextInt(ips)))
+                .timestamp(end.minusSeconds((long) (random.nextDouble() * seconds)))
+                .build();
+    }
+
+    LocalDateTime start(LocalDateTime end) {
+        return end.minusSeconds(seconds);
+    }
+
+    List<String> uris(int count) {
+        return IntStream.range(0, Math.min(count, uris))
+                .mapToObj(HitDataset::uri)
+                .collect(Collectors.toList());
+    }
+
+    private static String uri(int index) {
+        return "/events/" + index;
+    }
+
+    private static String ip(int index) {
+        return "10." + (index >>> 16 & 0xff) + "." + (index >>> 8 & 0xff) + "." + (index & 0xff);
+    }
+}
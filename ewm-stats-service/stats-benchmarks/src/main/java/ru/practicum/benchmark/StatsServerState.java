@@ -0,0 +1,92 @@
+package ru.practicum.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+import ru.practicum.HitInputDto;
+import ru.practicum.StatsServer;
+import ru.practicum.service.HitService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * stats-server без веб-слоя на встроенной H2 (RELATIONAL) или на файлах во временном каталоге (COLUMNAR),
+ * заполненный hits синтетическими просмотрами. Остальные настройки берутся из профиля test и переопределяются
+ * системными свойствами форка, например -jvmArgsAppend -Dstats.cache.enabled=true.
+ */
+@State(Scope.Benchmark)
+public class StatsServerState {
+    private static final long SEED = 42;
+    private static final int SEED_CHUNK_SIZE = 1000;
+    private static final int FILTERED_URIS = 10;
+    @Param({"RELATIONAL", "COLUMNAR"})
+    public String store;
+    @Param({"10000", "100000", "1000000"})
+    public int hits;
+    @Param({"1000"})
+    public int uris;
+    @Param({"10000"})
+    public int ips;
+    @Param({"30"})
+    public int days;
+    @Param({"sync"})
+    public String ingestion;
+    HitService hitService;
+    HitDataset dataset;
+    LocalDateTime start;
+    LocalDateTime end;
+    List<String> uriFilter;
+    private ConfigurableApplicationContext context;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        directory = Files.createTempDirectory("stats-benchmarks");
+        context = new SpringApplicationBuilder(StatsServer.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                .properties("stats.store=" + store,
+                        "stats.ingestion.mode=" + ingestion,
+                        "stats.columnar.directory=" + directory,
+                        "logging.level.root=WARN")
+                .run();
+        hitService = context.getBean(HitService.class);
+        dataset = new HitDataset(uris, ips, days);
+        end = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+        start = dataset.start(end);
+        uriFilter = dataset.uris(FILTERED_URIS);
+        seed();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        context.close();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    private void seed() {
+        Random random = new Random(SEED);
+        List<HitInputDto> chunk = new ArrayList<>(SEED_CHUNK_SIZE);
+        for (int i = 0; i < hits; i++) {
+            chunk.add(dataset.hit(random, end));
+            if (chunk.size() == SEED_CHUNK_SIZE || i == hits - 1) {
+                hitService.addHits(chunk);
+                chunk.clear();
+            }
+        }
+    }
+}
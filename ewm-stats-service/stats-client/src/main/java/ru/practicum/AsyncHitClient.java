@@ -0,0 +1,166 @@
+package ru.practicum;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Неблокирующий клиент сервера статистики на HttpClient из JDK: вызовы возвращают CompletableFuture, и поток
+ * вызывающего не ждёт ответа. STATS_SERVER_CONNECT_TIMEOUT_MS ограничивает установку соединения,
+ * STATS_SERVER_READ_TIMEOUT_MS — ожидание ответа на каждый запрос, STATS_SERVER_TIMEOUT_MS — весь вызов вместе
+ * со всеми страницами статистики. Ответ сервера не из 2xx завершает future исключением
+ * {@link org.springframework.web.client.HttpStatusCodeException}. Просмотры отправляет общая с {@link HitClient}
+ * {@link HitDelivery}. Все запросы идут через {@link StatsCallGuard}. Запросы статистики склеиваются
+ * {@link HitStatsCoalescer}; окно склейки запросов по одному uri задаёт STATS_SERVER_BATCH_WINDOW_MS, ноль её
+ * выключает.
+ */
+@Service
+public class AsyncHitClient {
+    private static final TypeReference<List<HitOutputDto>> HIT_STATS = new TypeReference<>() {
+    };
+    private static final int QUERY_PAGE_SIZE = 1000;
+    private final URI serverUri;
+    private final MediaType mediaType;
+    private final Duration readTimeout;
+    private final long timeoutMs;
+    private final ObjectMapper objectMapper;
+    private final HttpClient http;
+    private final HitDelivery delivery;
+    private final StatsCallGuard guard;
+    private final HitStatsCoalescer coalescer;
+
+    @Autowired
+    public AsyncHitClient(@Value("${STATS_SERVER_URL}") String serverUrl,
+                          @Value("${STATS_SERVER_BINARY:false}") boolean binary,
+                          @Value("${STATS_SERVER_CONNECT_TIMEOUT_MS:1000}") long connectTimeoutMs,
+                          @Value("${STATS_SERVER_READ_TIMEOUT_MS:3000}") long readTimeoutMs,
+                          @Value("${STATS_SERVER_TIMEOUT_MS:5000}") long timeoutMs,
+                          @Value("${STATS_SERVER_BATCH_WINDOW_MS:0}") long batchWindowMs,
+                          HitDelivery delivery,
+                          StatsCallGuard guard,
+                          ObjectMapper objectMapper) {
+        this.serverUri = URI.create(serverUrl.endsWith("/") ? serverUrl : serverUrl + "/");
+        this.mediaType = binary ? HitCodec.MEDIA_TYPE : MediaType.APPLICATION_JSON;
+        this.readTimeout = Duration.ofMillis(readTimeoutMs);
+        this.timeoutMs = timeoutMs;
+        this.objectMapper = objectMapper;
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+        this.delivery = delivery;
+        this.guard = guard;
+        this.coalescer = new HitStatsCoalescer(this::fetchHitStats, batchWindowMs, QUERY_PAGE_SIZE);
+    }
+
+    public CompletableFuture<Void> addHit(HitInputDto hitInputDto) {
+        return delivery.addHit(hitInputDto);
+    }
+
+    public CompletableFuture<Void> addHits(List<HitInputDto> hitInputDtos) {
+        return delivery.addHits(hitInputDtos);
+    }
+
+    /**
+     * Статистика по списку uri через POST /stats/query; страницы дочитываются по курсору, и все они укладываются
+     * в один общий тайм-аут. Возвращаемый список может делиться между вызывающими и не изменяется.
+     */
+    public CompletableFuture<List<HitOutputDto>> getHitStats(LocalDateTime start, LocalDateTime end,
+                                                             List<String> uris, boolean unique) {
+        return coalescer.getHitStats(start, end, uris, unique);
+    }
+
+    public CompletableFuture<ResponseEntity<List<HitOutputDto>>> queryHitStats(HitQueryDto query) {
+        return guard.callAsync(() -> fetchPage(query).orTimeout(timeoutMs, TimeUnit.MILLISECONDS));
+    }
+
+    private CompletableFuture<List<HitOutputDto>> fetchHitStats(LocalDateTime start, LocalDateTime end,
+                                                                List<String> uris, boolean unique) {
+        HitQueryDto query = HitQueryDto.builder()
+                .start(start)
+                .end(end)
+                .uris(uris)
+                .unique(unique)
+                .limit(QUERY_PAGE_SIZE)
+                .build();
+        return guard.callAsync(() -> collectPages(query, new ArrayList<>())
+                .orTimeout(timeoutMs, TimeUnit.MILLISECONDS));
+    }
+
+    private CompletableFuture<List<HitOutputDto>> collectPages(HitQueryDto query, List<HitOutputDto> hitStats) {
+        return fetchPage(query).thenCompose(page -> {
+            hitStats.addAll(page.getBody());
+            String nextCursor = page.getHeaders().getFirst(HitQueryDto.NEXT_CURSOR_HEADER);
+            if (nextCursor == null) {
+                return CompletableFuture.completedFuture(hitStats);
+            }
+            return collectPages(query.toBuilder().cursor(nextCursor).build(), hitStats);
+        });
+    }
+
+    private CompletableFuture<ResponseEntity<List<HitOutputDto>>> fetchPage(HitQueryDto query) {
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(query);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        HttpRequest request = request("/stats/query")
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .header(HttpHeaders.ACCEPT, mediaType.equals(MediaType.APPLICATION_JSON)
+                        ? MediaType.APPLICATION_JSON_VALUE
+                        : mediaType + ", " + MediaType.APPLICATION_JSON_VALUE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        return exchange(request).thenApply(response -> new ResponseEntity<>(readHitStats(response),
+                HitDelivery.headers(response), HttpStatus.valueOf(response.statusCode())));
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(serverUri.resolve(path.substring(1))).timeout(readTimeout);
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> exchange(HttpRequest request) {
+        return http.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(HitDelivery::checkStatus);
+    }
+
+    private List<HitOutputDto> readHitStats(HttpResponse<byte[]> response) {
+        try {
+            String contentType = response.headers().firstValue(HttpHeaders.CONTENT_TYPE).orElse(null);
+            if (contentType == null || !HitCodec.MEDIA_TYPE.isCompatibleWith(MediaType.parseMediaType(contentType))) {
+                return objectMapper.readValue(response.body(), HIT_STATS);
+            }
+            List<HitOutputDto> hitStats = new ArrayList<>();
+            InputStream input = new ByteArrayInputStream(response.body());
+            for (HitOutputDto hitStat = HitCodec.readHitStat(input); hitStat != null;
+                 hitStat = HitCodec.readHitStat(input)) {
+                hitStats.add(hitStat);
+            }
+            return hitStats;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package ru.practicum;
 
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
 import org.springframework.lang.Nullable;
 import org.springframework.web.client.HttpStatusCodeException;
@@ -7,12 +8,30 @@ import org.springframework.web.client.RestTemplate;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 public abstract class BaseClient {
     protected final RestTemplate rest;
+    private final MediaType mediaType;
+    @Nullable
+    private final StatsCallGuard guard;
 
     public BaseClient(RestTemplate rest) {
+        this(rest, MediaType.APPLICATION_JSON);
+    }
+
+    public BaseClient(RestTemplate rest, MediaType mediaType) {
+        this(rest, mediaType, null);
+    }
+
+    /**
+     * С guard каждый запрос проходит через предохранитель и ограничитель одновременных вызовов; отклонённый ими
+     * запрос завершается {@link StatsUnavailableException}.
+     */
+    public BaseClient(RestTemplate rest, MediaType mediaType, @Nullable StatsCallGuard guard) {
         this.rest = rest;
+        this.mediaType = mediaType;
+        this.guard = guard;
     }
 
     private static ResponseEntity<Object> prepareResponse(ResponseEntity<Object> response) {
@@ -34,6 +53,21 @@ public abstract class BaseClient {
         return makeAndSendRequest(HttpMethod.GET, path, parameters, null);
     }
 
+    protected <R> ResponseEntity<R> get(String path, Map<String, Object> parameters,
+                                        ParameterizedTypeReference<R> responseType) {
+        return guarded(() -> rest.exchange(path, HttpMethod.GET, new HttpEntity<>(defaultHeaders()), responseType,
+                parameters));
+    }
+
+    /**
+     * Тело запроса всегда JSON: двоичный формат есть только у просмотров и строк статистики.
+     */
+    protected <T, R> ResponseEntity<R> post(String path, T body, ParameterizedTypeReference<R> responseType) {
+        HttpHeaders headers = defaultHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return guarded(() -> rest.exchange(path, HttpMethod.POST, new HttpEntity<>(body, headers), responseType));
+    }
+
     private <T> ResponseEntity<Object> makeAndSendRequest(HttpMethod method, String path,
                                                           @Nullable Map<String, Object> parameters, @Nullable T body) {
         HttpEntity<T> requestEntity = new HttpEntity<>(body, defaultHeaders());
@@ -41,9 +75,10 @@ public abstract class BaseClient {
         ResponseEntity<Object> statsServerResponse;
         try {
             if (parameters != null) {
-                statsServerResponse = rest.exchange(path, method, requestEntity, Object.class, parameters);
+                statsServerResponse = guarded(() -> rest.exchange(path, method, requestEntity, Object.class,
+                        parameters));
             } else {
-                statsServerResponse = rest.exchange(path, method, requestEntity, Object.class);
+                statsServerResponse = guarded(() -> rest.exchange(path, method, requestEntity, Object.class));
             }
         } catch (HttpStatusCodeException e) {
             return ResponseEntity.status(e.getStatusCode()).body(e.getResponseBodyAsByteArray());
@@ -51,10 +86,16 @@ public abstract class BaseClient {
         return prepareResponse(statsServerResponse);
     }
 
+    private <R> ResponseEntity<R> guarded(Supplier<ResponseEntity<R>> request) {
+        return guard != null ? guard.call(request) : request.get();
+    }
+
     private HttpHeaders defaultHeaders() {
         HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setAccept(List.of(MediaType.APPLICATION_JSON));
+        headers.setContentType(mediaType);
+        headers.setAccept(mediaType.equals(MediaType.APPLICATION_JSON)
+                ? List.of(MediaType.APPLICATION_JSON)
+                : List.of(mediaType, MediaType.APPLICATION_JSON));
         return headers;
     }
 }
@@ -0,0 +1,181 @@
+package ru.practicum;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Буфер просмотров клиента: вызывающий только кладёт просмотр в очередь без блокировок, а фоновый поток отправляет
+ * их пачками по batchSize, как только пачка набрана или прошло flushIntervalMs. Ёмкость ограничена счётчиком,
+ * который занимается CAS до постановки в очередь. Пачка, которую сервер временно не принял (недоступен, 5xx, 408,
+ * 429), возвращается в буфер и уходит не раньше чем через flushIntervalMs; отбрасываются только пачки с остальными
+ * ответами 4xx. При закрытии буфер отправляет всё, что в нём осталось.
+ */
+class HitBuffer implements Closeable {
+    private static final Log log = LogFactory.getLog(HitBuffer.class);
+    private static final long CLOSE_TIMEOUT_MS = 10_000;
+    private final Queue<HitInputDto> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final HitOverflowPolicy overflowPolicy;
+    private final Consumer<List<HitInputDto>> sink;
+    private final Thread flusher;
+    private volatile boolean running = true;
+    private long pausedUntil;
+    private boolean failing;
+
+    HitBuffer(String name, int capacity, int batchSize, long flushIntervalMs, HitOverflowPolicy overflowPolicy,
+              Consumer<List<HitInputDto>> sink) {
+        this.capacity = capacity;
+        this.batchSize = Math.max(1, Math.min(batchSize, capacity));
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.overflowPolicy = overflowPolicy;
+        this.sink = sink;
+        this.flusher = new Thread(this::run, name);
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    HitOverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * false, если буфер полон и просмотр не принят: при DROP_NEWEST он потерян, при CALLER_RUNS его отправляет
+     * вызывающий.
+     */
+    boolean offer(HitInputDto hitInputDto) {
+        while (!reserve()) {
+            if (overflowPolicy != HitOverflowPolicy.DROP_OLDEST) {
+                if (overflowPolicy == HitOverflowPolicy.DROP_NEWEST) {
+                    dropped.increment();
+                }
+                return false;
+            }
+            if (queue.poll() != null) {
+                dropped.increment();
+                queue.offer(hitInputDto);
+                return true;
+            }
+        }
+        queue.offer(hitInputDto);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (size.get() > 0) {
+            log.warn("При закрытии буфера не отправлено " + size.get() + " просмотров.");
+        }
+    }
+
+    private boolean reserve() {
+        int current;
+        do {
+            current = size.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+        if (current + 1 == batchSize) {
+            LockSupport.unpark(flusher);
+        }
+        return true;
+    }
+
+    private void run() {
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (true) {
+            boolean stopping = !running;
+            boolean full = size.get() >= batchSize && System.nanoTime() - pausedUntil >= 0;
+            if (stopping || full || System.nanoTime() - deadline >= 0) {
+                flush();
+                deadline = System.nanoTime() + flushIntervalNanos;
+                if (stopping) {
+                    return;
+                }
+            } else {
+                LockSupport.parkNanos(this, deadline - System.nanoTime());
+            }
+        }
+    }
+
+    private void flush() {
+        long droppedHits = dropped.sumThenReset();
+        if (droppedHits > 0) {
+            log.warn("Буфер просмотров переполнен, отброшено " + droppedHits + ".");
+        }
+        List<HitInputDto> batch = new ArrayList<>(batchSize);
+        for (HitInputDto hitInputDto = queue.poll(); hitInputDto != null; hitInputDto = queue.poll()) {
+            size.decrementAndGet();
+            batch.add(hitInputDto);
+            if (batch.size() == batchSize) {
+                if (!send(batch)) {
+                    return;
+                }
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+
+    /**
+     * false, если пачка вернулась в буфер и отправку нужно отложить.
+     */
+    private boolean send(List<HitInputDto> batch) {
+        try {
+            sink.accept(batch);
+            if (failing) {
+                log.info("Сервер статистики снова принимает просмотры из буфера.");
+                failing = false;
+            }
+        } catch (RuntimeException e) {
+            if (!HitSpool.isRetryable(e)) {
+                log.warn("Не удалось отправить " + batch.size() + " просмотров, они отброшены: " + e.getMessage());
+                return true;
+            }
+            if (!failing) {
+                log.warn("Сервер статистики временно не принимает просмотры, они остаются в буфере: "
+                        + e.getMessage());
+                failing = true;
+            }
+            requeue(batch);
+            pausedUntil = System.nanoTime() + flushIntervalNanos;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Возвращает пачку в конец очереди; то, что не поместилось рядом с новыми просмотрами, отбрасывается.
+     */
+    private void requeue(List<HitInputDto> batch) {
+        int requeued = 0;
+        while (requeued < batch.size() && reserve()) {
+            queue.offer(batch.get(requeued++));
+        }
+        dropped.add(batch.size() - requeued);
+    }
+}
@@ -1,57 +1,146 @@
 package ru.practicum;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.util.DefaultUriBuilderFactory;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class HitClient extends BaseClient {
-    private final ObjectMapper objectMapper;
-    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final ParameterizedTypeReference<List<HitOutputDto>> HIT_STATS =
+            new ParameterizedTypeReference<>() {
+            };
+    private static final int QUERY_PAGE_SIZE = 1000;
+    private static final int VALIDATE_AFTER_INACTIVITY_MS = 2000;
+    private static final long IDLE_CONNECTION_TIMEOUT_MS = 30_000;
+    private final HitDelivery delivery;
 
+    /**
+     * Просмотры отправляет общая с {@link AsyncHitClient} {@link HitDelivery}, а вызов ждёт её результата.
+     * <p>
+     * Соединения берутся из пула не больше STATS_SERVER_MAX_CONNECTIONS; запросы идут через {@link StatsCallGuard}.
+     */
     @Autowired
-    public HitClient(@Value("${STATS_SERVER_URL}") String serverUrl, RestTemplateBuilder builder,
-                     ObjectMapper objectMapper) {
+    public HitClient(@Value("${STATS_SERVER_URL}") String serverUrl,
+                     @Value("${STATS_SERVER_BINARY:false}") boolean binary,
+                     @Value("${STATS_SERVER_CONNECT_TIMEOUT_MS:1000}") int connectTimeoutMs,
+                     @Value("${STATS_SERVER_READ_TIMEOUT_MS:3000}") int readTimeoutMs,
+                     @Value("${STATS_SERVER_MAX_CONNECTIONS:20}") int maxConnections,
+                     HitDelivery delivery,
+                     StatsCallGuard guard,
+                     RestTemplateBuilder builder) {
         super(
                 builder
                         .uriTemplateHandler(new DefaultUriBuilderFactory(serverUrl))
-                        .requestFactory(HttpComponentsClientHttpRequestFactory::new)
-                        .build()
+                        .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(
+                                pooledHttpClient(connectTimeoutMs, readTimeoutMs, maxConnections)))
+                        .additionalMessageConverters(new HitMessageConverter())
+                        .build(),
+                binary ? HitCodec.MEDIA_TYPE : MediaType.APPLICATION_JSON,
+                guard
         );
-        this.objectMapper = objectMapper;
+        this.delivery = delivery;
     }
 
+    /**
+     * 202 означает, что просмотр доставлен, поставлен в очередь буфера, отправлен датаграммой или сохранён в
+     * {@link HitSpool}; 503 — что его отбросило переполнение буфера. Ответ сервера не из 2xx возвращается как есть.
+     */
     public ResponseEntity<Object> addHit(HitInputDto hitInputDto) {
-        return post("/hit", hitInputDto);
+        return await(delivery.addHit(hitInputDto));
     }
 
+    public ResponseEntity<Object> addHits(List<HitInputDto> hitInputDtos) {
+        return await(delivery.addHits(hitInputDtos));
+    }
+
+    /**
+     * Список uri уходит телом POST /stats/query, а не строкой запроса; страницы дочитываются по курсору.
+     */
     public List<HitOutputDto> getHitStats(LocalDateTime start, LocalDateTime end, List<String> uris,
                                           boolean unique) {
-        StringBuilder builder = new StringBuilder();
-        for (String uri : uris) {
-            builder.append(uri);
-            builder.append(",");
+        HitQueryDto query = HitQueryDto.builder()
+                .start(start)
+                .end(end)
+                .uris(uris)
+                .unique(unique)
+                .limit(QUERY_PAGE_SIZE)
+                .build();
+        List<HitOutputDto> hitStats = new ArrayList<>();
+        while (true) {
+            ResponseEntity<List<HitOutputDto>> page = queryHitStats(query);
+            hitStats.addAll(page.getBody());
+            String nextCursor = page.getHeaders().getFirst(HitQueryDto.NEXT_CURSOR_HEADER);
+            if (nextCursor == null) {
+                return hitStats;
+            }
+            query = query.toBuilder().cursor(nextCursor).build();
         }
-        Map<String, Object> parameters = Map.of(
-                "start", start.format(formatter),
-                "end", end.format(formatter),
-                "uris", builder.toString(),
-                "unique", unique
-        );
-        ResponseEntity<Object> response = get("/stats?start={start}&end={end}&uris={uris}&unique={unique}",
-                parameters);
-        return objectMapper.convertValue(response.getBody(), new TypeReference<List<HitOutputDto>>() {
-        });
     }
-}
\ No newline at end of file
+
+    public ResponseEntity<List<HitOutputDto>> queryHitStats(HitQueryDto query) {
+        return post("/stats/query", query, HIT_STATS);
+    }
+
+    private static ResponseEntity<Object> await(CompletableFuture<Void> delivery) {
+        try {
+            delivery.join();
+            return ResponseEntity.status(HttpStatus.ACCEPTED).build();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof HttpStatusCodeException) {
+                HttpStatusCodeException response = (HttpStatusCodeException) cause;
+                return ResponseEntity.status(response.getRawStatusCode()).body(response.getResponseBodyAsByteArray());
+            }
+            if (cause instanceof IllegalStateException || cause instanceof IOException) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(cause.getMessage());
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Ожидание свободного соединения из пула ограничено тем же временем, что и установка соединения, а
+     * простаивающие соединения закрываются, пока их не оборвал сервер.
+     */
+    private static CloseableHttpClient pooledHttpClient(int connectTimeoutMs, int readTimeoutMs,
+                                                        int maxConnections) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MS);
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeoutMs)
+                        .setConnectionRequestTimeout(connectTimeoutMs)
+                        .setSocketTimeout(readTimeoutMs)
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(IDLE_CONNECTION_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .disableCookieManagement()
+                .build();
+    }
+}
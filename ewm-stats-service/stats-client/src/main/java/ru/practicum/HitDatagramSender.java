@@ -0,0 +1,54 @@
+package ru.practicum;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+
+/**
+ * Отправка просмотров на UDP-порт сервера статистики без ожидания ответа. Записи в формате {@link HitCodec}
+ * складываются в датаграммы не больше MAX_DATAGRAM_BYTES, чтобы они проходили без фрагментации.
+ */
+class HitDatagramSender implements Closeable {
+    private static final int MAX_DATAGRAM_BYTES = 1400;
+    private final DatagramChannel channel;
+
+    HitDatagramSender(String target) throws IOException {
+        int separator = target.lastIndexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Адрес UDP должен иметь вид host:port, получено " + target + ".");
+        }
+        channel = DatagramChannel.open();
+        channel.connect(new InetSocketAddress(target.substring(0, separator),
+                Integer.parseInt(target.substring(separator + 1))));
+    }
+
+    void send(List<HitInputDto> hitInputDtos) throws IOException {
+        ByteArrayOutputStream datagram = new ByteArrayOutputStream(MAX_DATAGRAM_BYTES);
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        for (HitInputDto hitInputDto : hitInputDtos) {
+            record.reset();
+            HitCodec.writeHit(hitInputDto, record);
+            if (datagram.size() > 0 && datagram.size() + record.size() > MAX_DATAGRAM_BYTES) {
+                flush(datagram);
+            }
+            record.writeTo(datagram);
+        }
+        if (datagram.size() > 0) {
+            flush(datagram);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void flush(ByteArrayOutputStream datagram) throws IOException {
+        channel.write(ByteBuffer.wrap(datagram.toByteArray()));
+        datagram.reset();
+    }
+}
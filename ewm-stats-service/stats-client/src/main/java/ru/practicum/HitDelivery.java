@@ -0,0 +1,219 @@
+package ru.practicum;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.UnknownHttpStatusCodeException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Доставка просмотров, общая для {@link HitClient} и {@link AsyncHitClient}: один буфер, один файл {@link HitSpool}
+ * и одна отправка по UDP на приложение, сколько бы клиентов ни было.
+ * <p>
+ * STATS_SERVER_UDP отправляет просмотры датаграммами без ожидания ответа. STATS_SERVER_BUFFER_CAPACITY больше нуля
+ * включает буфер: просмотры копятся в памяти и уходят одним POST /hits/batch на каждые
+ * STATS_SERVER_BUFFER_BATCH_SIZE штук или раз в STATS_SERVER_BUFFER_FLUSH_MS, а STATS_SERVER_BUFFER_OVERFLOW задаёт
+ * {@link HitOverflowPolicy} для полного буфера. Просмотры, которые сервер не принял из-за недоступности или
+ * временной ошибки (5xx, 408, 429), уходят в {@link HitSpool}, если он включён, и доставка считается успешной.
+ */
+@Service
+public class HitDelivery implements DisposableBean {
+    private final URI serverUri;
+    private final MediaType mediaType;
+    private final Duration readTimeout;
+    private final long timeoutMs;
+    private final ObjectMapper objectMapper;
+    private final HttpClient http;
+    private final HitDatagramSender datagramSender;
+    private final HitBuffer buffer;
+    private final HitSpool spool;
+    private final StatsCallGuard guard;
+
+    @Autowired
+    public HitDelivery(@Value("${STATS_SERVER_URL}") String serverUrl,
+                       @Value("${STATS_SERVER_BINARY:false}") boolean binary,
+                       @Value("${STATS_SERVER_UDP:}") String udpTarget,
+                       @Value("${STATS_SERVER_CONNECT_TIMEOUT_MS:1000}") long connectTimeoutMs,
+                       @Value("${STATS_SERVER_READ_TIMEOUT_MS:3000}") long readTimeoutMs,
+                       @Value("${STATS_SERVER_TIMEOUT_MS:5000}") long timeoutMs,
+                       @Value("${STATS_SERVER_BUFFER_CAPACITY:0}") int bufferCapacity,
+                       @Value("${STATS_SERVER_BUFFER_BATCH_SIZE:500}") int bufferBatchSize,
+                       @Value("${STATS_SERVER_BUFFER_FLUSH_MS:1000}") long bufferFlushMs,
+                       @Value("${STATS_SERVER_BUFFER_OVERFLOW:DROP_NEWEST}") HitOverflowPolicy overflowPolicy,
+                       HitSpool spool,
+                       StatsCallGuard guard,
+                       ObjectMapper objectMapper) {
+        this.serverUri = URI.create(serverUrl.endsWith("/") ? serverUrl : serverUrl + "/");
+        this.mediaType = binary ? HitCodec.MEDIA_TYPE : MediaType.APPLICATION_JSON;
+        this.readTimeout = Duration.ofMillis(readTimeoutMs);
+        this.timeoutMs = timeoutMs;
+        this.objectMapper = objectMapper;
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+        try {
+            this.datagramSender = udpTarget.isBlank() ? null : new HitDatagramSender(udpTarget);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.spool = spool;
+        this.guard = guard;
+        this.buffer = bufferCapacity > 0
+                ? new HitBuffer("hit-delivery-buffer", bufferCapacity, bufferBatchSize, bufferFlushMs,
+                overflowPolicy, hitInputDtos -> sendNow(hitInputDtos).join())
+                : null;
+    }
+
+    /**
+     * С буфером future завершается сразу после постановки в очередь, а переполнение при DROP_NEWEST и DROP_OLDEST
+     * завершает его {@link IllegalStateException}. Без буфера и UDP одиночный просмотр уходит POST /hit.
+     */
+    public CompletableFuture<Void> addHit(HitInputDto hitInputDto) {
+        if (buffer != null || datagramSender != null) {
+            return addHits(List.of(hitInputDto));
+        }
+        return orSpool(List.of(hitInputDto), post("/hit", hitsBody(List.of(hitInputDto), false)));
+    }
+
+    public CompletableFuture<Void> addHits(List<HitInputDto> hitInputDtos) {
+        if (buffer != null) {
+            return enqueue(hitInputDtos);
+        }
+        return sendNow(hitInputDtos);
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (buffer != null) {
+            buffer.close();
+        }
+        if (datagramSender != null) {
+            datagramSender.close();
+        }
+    }
+
+    /**
+     * Ответ не из 2xx становится исключением {@link org.springframework.web.client.HttpStatusCodeException}.
+     */
+    static HttpResponse<byte[]> checkStatus(HttpResponse<byte[]> response) {
+        HttpStatus status = HttpStatus.resolve(response.statusCode());
+        if (status != null && status.is2xxSuccessful()) {
+            return response;
+        }
+        if (status != null && status.is4xxClientError()) {
+            throw HttpClientErrorException.create(status, status.getReasonPhrase(), headers(response),
+                    response.body(), StandardCharsets.UTF_8);
+        }
+        if (status != null && status.is5xxServerError()) {
+            throw HttpServerErrorException.create(status, status.getReasonPhrase(), headers(response),
+                    response.body(), StandardCharsets.UTF_8);
+        }
+        throw new UnknownHttpStatusCodeException(response.statusCode(), "", headers(response), response.body(),
+                StandardCharsets.UTF_8);
+    }
+
+    static HttpHeaders headers(HttpResponse<?> response) {
+        HttpHeaders headers = new HttpHeaders();
+        response.headers().map().forEach(headers::addAll);
+        return headers;
+    }
+
+    private CompletableFuture<Void> enqueue(List<HitInputDto> hitInputDtos) {
+        List<HitInputDto> rejected = new ArrayList<>();
+        for (HitInputDto hitInputDto : hitInputDtos) {
+            if (!buffer.offer(hitInputDto)) {
+                rejected.add(hitInputDto);
+            }
+        }
+        if (rejected.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (buffer.getOverflowPolicy() == HitOverflowPolicy.CALLER_RUNS) {
+            return sendNow(rejected);
+        }
+        return CompletableFuture.failedFuture(new IllegalStateException(
+                "Буфер просмотров переполнен, отброшено " + rejected.size() + "."));
+    }
+
+    private CompletableFuture<Void> sendNow(List<HitInputDto> hitInputDtos) {
+        if (datagramSender != null) {
+            return orSpool(hitInputDtos, send(hitInputDtos));
+        }
+        return orSpool(hitInputDtos, post("/hits/batch", hitsBody(hitInputDtos, true)));
+    }
+
+    /**
+     * Ответ 4xx, кроме 408 и 429, в файл не попадает: повтор того же запроса сервер отклонит снова.
+     */
+    private CompletableFuture<Void> orSpool(List<HitInputDto> hitInputDtos, CompletableFuture<Void> request) {
+        if (!spool.isEnabled()) {
+            return request;
+        }
+        return request.handle((ignored, e) -> {
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause == null || !HitSpool.isRetryable(cause) || !spool.append(hitInputDtos)) {
+                return request;
+            }
+            return CompletableFuture.<Void>completedFuture(null);
+        }).thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<Void> post(String path, byte[] body) {
+        HttpRequest request = HttpRequest.newBuilder(serverUri.resolve(path.substring(1)))
+                .timeout(readTimeout)
+                .header(HttpHeaders.CONTENT_TYPE, mediaType.toString())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        return guard.callAsync(() -> http.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(HitDelivery::checkStatus)
+                .thenApply(response -> (Void) null)
+                .orTimeout(timeoutMs, TimeUnit.MILLISECONDS));
+    }
+
+    private CompletableFuture<Void> send(List<HitInputDto> hitInputDtos) {
+        try {
+            datagramSender.send(hitInputDtos);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private byte[] hitsBody(List<HitInputDto> hitInputDtos, boolean batch) {
+        try {
+            if (mediaType.equals(MediaType.APPLICATION_JSON)) {
+                return objectMapper.writeValueAsBytes(batch ? hitInputDtos : hitInputDtos.get(0));
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            for (HitInputDto hitInputDto : hitInputDtos) {
+                HitCodec.writeHit(hitInputDto, output);
+            }
+            return output.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ru.practicum;
+
+/**
+ * Что делать с просмотром, когда буфер клиента заполнен.
+ */
+public enum HitOverflowPolicy {
+    /**
+     * Новый просмотр отбрасывается.
+     */
+    DROP_NEWEST,
+    /**
+     * Самый старый просмотр в буфере уступает место новому.
+     */
+    DROP_OLDEST,
+    /**
+     * Просмотр отправляется сразу, в потоке вызывающего, как без буфера.
+     */
+    CALLER_RUNS
+}
@@ -0,0 +1,412 @@
+package ru.practicum;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Файл на диске для просмотров, которые не удалось доставить серверу статистики. Файл отображён в память и
+ * дописывается только в конец; фоновый поток пересылает записи пачками в POST /hits/batch в формате
+ * {@link HitCodec} и при ошибках сети, 5xx, 408 и 429 ждёт всё дольше, от STATS_SERVER_SPOOL_BACKOFF_MS до
+ * STATS_SERVER_SPOOL_MAX_BACKOFF_MS. Включается путём STATS_SERVER_SPOOL_PATH.
+ * <p>
+ * Заголовок файла хранит эпоху и позицию чтения. Запись — эпоха, длина, CRC32, время постановки и тело; эпоха
+ * пишется последней, поэтому оборванная при падении процесса запись при разборе файла не засчитывается. Когда
+ * всё переслано, эпоха увеличивается и файл пишется с начала. Доставка не меньше одного раза: пачка, которую
+ * сервер принял до падения, но позиция которой не успела сохраниться, будет отправлена повторно.
+ */
+@Service
+public class HitSpool implements MeterBinder, DisposableBean {
+    private static final Log log = LogFactory.getLog(HitSpool.class);
+    private static final int MAGIC = 0x45574d53;
+    private static final int HEADER_BYTES = 16;
+    private static final int EPOCH_OFFSET = 4;
+    private static final int READ_OFFSET = 8;
+    private static final int RECORD_HEADER_BYTES = 20;
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long CLOSE_TIMEOUT_MS = 10_000;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final MappedByteBuffer file;
+    private final HttpClient http;
+    private final URI batchUri;
+    private final Duration readTimeout;
+    private final int batchSize;
+    private final long backoffMs;
+    private final long maxBackoffMs;
+    private final Thread replayer;
+    private int epoch;
+    private int readPosition;
+    private int writePosition;
+    private long pendingHits;
+    private boolean dirty;
+    private volatile boolean running = true;
+
+    @Autowired
+    public HitSpool(@Value("${STATS_SERVER_URL}") String serverUrl,
+                    @Value("${STATS_SERVER_SPOOL_PATH:}") String path,
+                    @Value("${STATS_SERVER_SPOOL_SIZE_MB:64}") int sizeMb,
+                    @Value("${STATS_SERVER_SPOOL_BATCH_SIZE:500}") int batchSize,
+                    @Value("${STATS_SERVER_SPOOL_BACKOFF_MS:500}") long backoffMs,
+                    @Value("${STATS_SERVER_SPOOL_MAX_BACKOFF_MS:60000}") long maxBackoffMs,
+                    @Value("${STATS_SERVER_CONNECT_TIMEOUT_MS:1000}") long connectTimeoutMs,
+                    @Value("${STATS_SERVER_READ_TIMEOUT_MS:3000}") long readTimeoutMs) {
+        this.batchUri = URI.create(serverUrl.endsWith("/") ? serverUrl : serverUrl + "/").resolve("hits/batch");
+        this.readTimeout = Duration.ofMillis(readTimeoutMs);
+        this.batchSize = Math.max(1, batchSize);
+        this.backoffMs = Math.max(1, backoffMs);
+        this.maxBackoffMs = Math.max(this.backoffMs, maxBackoffMs);
+        if (path.isBlank()) {
+            this.channel = null;
+            this.lock = null;
+            this.file = null;
+            this.http = null;
+            this.replayer = null;
+            return;
+        }
+        try {
+            this.channel = FileChannel.open(Path.of(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.lock = tryLock(channel);
+            if (lock == null) {
+                channel.close();
+                throw new IllegalStateException("Файл " + path + " уже занят другим процессом.");
+            }
+            long size = Math.max((long) sizeMb << 20, channel.size());
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Размер файла просмотров больше 2 ГБ: " + size + ".");
+            }
+            this.file = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        recover();
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+        this.replayer = new Thread(this::replay, "hit-spool-replayer");
+        this.replayer.setDaemon(true);
+        this.replayer.start();
+        if (pendingHits > 0) {
+            log.info("В файле " + path + " найдено " + pendingHits + " недоставленных просмотров.");
+        }
+    }
+
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * Дописывает просмотры в файл; false, если файл не включён или в нём нет места, и тогда просмотры потеряны.
+     */
+    public boolean append(List<HitInputDto> hitInputDtos) {
+        if (file == null) {
+            return false;
+        }
+        long spooledAt = System.currentTimeMillis();
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        CRC32 crc = new CRC32();
+        int appended = 0;
+        synchronized (this) {
+            for (HitInputDto hitInputDto : hitInputDtos) {
+                record.reset();
+                try {
+                    HitCodec.writeHit(hitInputDto, record);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (writePosition + RECORD_HEADER_BYTES + record.size() > file.capacity()) {
+                    break;
+                }
+                byte[] payload = record.toByteArray();
+                crc.reset();
+                crc.update(payload);
+                file.putInt(writePosition + 4, payload.length);
+                file.putInt(writePosition + 8, (int) crc.getValue());
+                file.putLong(writePosition + 12, spooledAt);
+                file.duplicate().position(writePosition + RECORD_HEADER_BYTES).put(payload);
+                file.putInt(writePosition, epoch);
+                writePosition += RECORD_HEADER_BYTES + payload.length;
+                appended++;
+            }
+            pendingHits += appended;
+            dirty |= appended > 0;
+        }
+        if (appended > 0) {
+            LockSupport.unpark(replayer);
+        }
+        if (appended < hitInputDtos.size()) {
+            dropped.add(hitInputDtos.size() - appended);
+            log.warn("Файл недоставленных просмотров заполнен, отброшено " + (hitInputDtos.size() - appended) + ".");
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (file == null) {
+            return;
+        }
+        Gauge.builder("stats.client.spool.size", this, HitSpool::size)
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("stats.client.spool.capacity", file, MappedByteBuffer::capacity)
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("stats.client.spool.hits", this, HitSpool::pendingHits).register(registry);
+        Gauge.builder("stats.client.spool.lag", this, HitSpool::lagSeconds)
+                .baseUnit("seconds")
+                .register(registry);
+        FunctionCounter.builder("stats.client.spool.replayed", replayed, LongAdder::sum).register(registry);
+        FunctionCounter.builder("stats.client.spool.dropped", dropped, LongAdder::sum).register(registry);
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (file == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(replayer);
+        try {
+            replayer.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            file.force();
+        }
+        lock.release();
+        channel.close();
+    }
+
+    synchronized long size() {
+        return writePosition - readPosition;
+    }
+
+    synchronized long pendingHits() {
+        return pendingHits;
+    }
+
+    /**
+     * Сколько секунд ждёт пересылки самый старый просмотр в файле.
+     */
+    synchronized double lagSeconds() {
+        if (readPosition == writePosition) {
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() - file.getLong(readPosition + 12)) / 1000.0;
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    private void recover() {
+        int storedRead = file.getInt(READ_OFFSET);
+        if (file.getInt(0) != MAGIC || storedRead < HEADER_BYTES || storedRead > file.capacity()) {
+            epoch = 1;
+            readPosition = HEADER_BYTES;
+            file.putInt(EPOCH_OFFSET, epoch);
+            file.putInt(READ_OFFSET, readPosition);
+            file.putInt(0, MAGIC);
+        } else {
+            epoch = file.getInt(EPOCH_OFFSET);
+            readPosition = storedRead;
+        }
+        writePosition = readPosition;
+        for (int length = recordLength(writePosition); length >= 0; length = recordLength(writePosition)) {
+            writePosition += RECORD_HEADER_BYTES + length;
+            pendingHits++;
+        }
+    }
+
+    /**
+     * Длина тела записи с позиции position или -1, если там нет целой записи текущей эпохи.
+     */
+    private int recordLength(int position) {
+        if (position + RECORD_HEADER_BYTES > file.capacity() || file.getInt(position) != epoch) {
+            return -1;
+        }
+        int length = file.getInt(position + 4);
+        if (length <= 0 || position + RECORD_HEADER_BYTES + length > file.capacity()) {
+            return -1;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(file.duplicate().position(position + RECORD_HEADER_BYTES).limit(position + RECORD_HEADER_BYTES
+                + length));
+        return (int) crc.getValue() == file.getInt(position + 8) ? length : -1;
+    }
+
+    private void replay() {
+        long backoff = backoffMs;
+        boolean failing = false;
+        int limit = batchSize;
+        while (running) {
+            Batch batch = nextBatch(limit);
+            if (batch == null) {
+                limit = batchSize;
+                LockSupport.parkNanos(this, IDLE_NANOS);
+                continue;
+            }
+            try {
+                int status = deliver(batch);
+                if (failing) {
+                    log.info("Сервер статистики снова доступен, недоставленные просмотры пересылаются.");
+                    failing = false;
+                }
+                backoff = backoffMs;
+                if (isSplittable(status) && batch.hits > 1) {
+                    limit = (batch.hits + 1) / 2;
+                    continue;
+                }
+                if (status >= 300) {
+                    log.error("Сервер статистики отклонил " + batch.hits + " недоставленных просмотров с ответом "
+                            + status + ", они отброшены.");
+                    dropped.add(batch.hits);
+                } else {
+                    replayed.add(batch.hits);
+                    limit = Math.min(limit * 2, batchSize);
+                }
+                commit(batch);
+            } catch (IOException e) {
+                if (!failing) {
+                    log.warn("Не удалось переслать недоставленные просмотры: " + e);
+                    failing = true;
+                }
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(backoff));
+                backoff = Math.min(backoff * 2, maxBackoffMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private synchronized Batch nextBatch(int limit) {
+        if (dirty) {
+            file.force();
+            dirty = false;
+        }
+        if (readPosition == writePosition) {
+            return null;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int position = readPosition;
+        int hits = 0;
+        while (position < writePosition && hits < limit) {
+            int length = file.getInt(position + 4);
+            byte[] payload = new byte[length];
+            file.duplicate().position(position + RECORD_HEADER_BYTES).get(payload);
+            body.writeBytes(payload);
+            position += RECORD_HEADER_BYTES + length;
+            hits++;
+        }
+        return new Batch(body.toByteArray(), position, hits);
+    }
+
+    /**
+     * Код ответа сервера; временные отказы (5xx, 408, 429) бросают IOException, и пачка повторяется с паузой.
+     */
+    private int deliver(Batch batch) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(batchUri)
+                .timeout(readTimeout)
+                .header(HttpHeaders.CONTENT_TYPE, HitCodec.MEDIA_TYPE_VALUE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(batch.body))
+                .build();
+        int status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        if (isRetryable(status)) {
+            throw new IOException("сервер статистики ответил " + status);
+        }
+        return status;
+    }
+
+    static boolean isRetryable(int status) {
+        return status >= 500 || status == 408 || status == 429;
+    }
+
+    /**
+     * Отказ временный и просмотры стоит повторить: сервер недоступен, не ответил вовремя или ответил 5xx, 408, 429.
+     */
+    static boolean isRetryable(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof RestClientResponseException) {
+            return isRetryable(((RestClientResponseException) cause).getRawStatusCode());
+        }
+        return cause instanceof ResourceAccessException || cause instanceof IOException
+                || cause instanceof TimeoutException;
+    }
+
+    /**
+     * Пачку, отклонённую целиком из-за одной записи или размера, пересылаем половинами, пока не останется
+     * одна негодная запись; отбрасывается только она.
+     */
+    private static boolean isSplittable(int status) {
+        return status == 400 || status == 413;
+    }
+
+    private synchronized void commit(Batch batch) {
+        pendingHits -= batch.hits;
+        if (batch.end == writePosition) {
+            epoch++;
+            file.putInt(EPOCH_OFFSET, epoch);
+            readPosition = HEADER_BYTES;
+            writePosition = HEADER_BYTES;
+        } else {
+            readPosition = batch.end;
+        }
+        file.putInt(READ_OFFSET, readPosition);
+        dirty = true;
+    }
+
+    private static class Batch {
+        private final byte[] body;
+        private final int end;
+        private final int hits;
+
+        private Batch(byte[] body, int end, int hits) {
+            this.body = body;
+            this.end = end;
+            this.hits = hits;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package ru.practicum;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Склейка запросов статистики. Одинаковые запросы, пока первый из них не завершился, получают общий ответ:
+ * время в запросе передаётся с точностью до секунды, поэтому сравнивается с той же точностью. При окне больше
+ * нуля запросы по одному uri с тем же началом (с точностью до секунды), пришедшие за окно, уходят одним запросом
+ * по всем их uri до самого позднего из их концов, и каждый получает строки своего uri. Концы таких запросов
+ * обычно «сейчас» и расходятся не больше чем на окно; запросы с другим началом склеиваются отдельно.
+ */
+class HitStatsCoalescer {
+    private final Map<Query, CompletableFuture<List<HitOutputDto>>> inFlight = new ConcurrentHashMap<>();
+    private final Map<BatchKey, UriBatch> openBatches = new HashMap<>();
+    private final StatsQuery query;
+    private final Executor batchDelay;
+    private final int maxBatchUris;
+
+    HitStatsCoalescer(StatsQuery query, long batchWindowMs, int maxBatchUris) {
+        this.query = query;
+        this.batchDelay = batchWindowMs > 0
+                ? CompletableFuture.delayedExecutor(batchWindowMs, TimeUnit.MILLISECONDS)
+                : null;
+        this.maxBatchUris = maxBatchUris;
+    }
+
+    CompletableFuture<List<HitOutputDto>> getHitStats(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                                      boolean unique) {
+        if (batchDelay != null && uris != null && uris.size() == 1) {
+            return batched(start, end, uris.get(0), unique);
+        }
+        return shared(new Query(start, end, uris, unique));
+    }
+
+    private CompletableFuture<List<HitOutputDto>> shared(Query key) {
+        CompletableFuture<List<HitOutputDto>> created = new CompletableFuture<>();
+        CompletableFuture<List<HitOutputDto>> running = inFlight.putIfAbsent(key, created);
+        if (running != null) {
+            return running.copy();
+        }
+        query.fetch(key.start, key.end, key.uris, key.unique).whenComplete((hitStats, e) -> {
+            inFlight.remove(key, created);
+            if (e != null) {
+                created.completeExceptionally(e);
+            } else {
+                created.complete(Collections.unmodifiableList(hitStats));
+            }
+        });
+        return created.copy();
+    }
+
+    private CompletableFuture<List<HitOutputDto>> batched(LocalDateTime start, LocalDateTime end, String uri,
+                                                          boolean unique) {
+        CompletableFuture<List<HitOutputDto>> result = new CompletableFuture<>();
+        BatchKey key = new BatchKey(start, unique);
+        UriBatch full = null;
+        synchronized (openBatches) {
+            UriBatch batch = openBatches.get(key);
+            if (batch == null) {
+                batch = new UriBatch(key);
+                openBatches.put(key, batch);
+                UriBatch scheduled = batch;
+                batchDelay.execute(() -> close(scheduled));
+            }
+            batch.add(end, uri, result);
+            if (batch.waiters.size() >= maxBatchUris) {
+                openBatches.remove(key);
+                full = batch;
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return result;
+    }
+
+    private void close(UriBatch batch) {
+        synchronized (openBatches) {
+            if (!openBatches.remove(batch.key, batch)) {
+                return;
+            }
+        }
+        send(batch);
+    }
+
+    private void send(UriBatch batch) {
+        shared(new Query(batch.key.start, batch.end, new ArrayList<>(batch.waiters.keySet()), batch.key.unique))
+                .whenComplete((hitStats, e) -> {
+                    if (e != null) {
+                        batch.waiters.values().forEach(waiters -> waiters.forEach(
+                                waiter -> waiter.completeExceptionally(e)));
+                        return;
+                    }
+                    Map<String, List<HitOutputDto>> byUri = new HashMap<>();
+                    for (HitOutputDto hitStat : hitStats) {
+                        byUri.computeIfAbsent(hitStat.getUri(), uri -> new ArrayList<>()).add(hitStat);
+                    }
+                    batch.waiters.forEach((uri, waiters) -> {
+                        List<HitOutputDto> uriStats = Collections.unmodifiableList(
+                                byUri.getOrDefault(uri, Collections.emptyList()));
+                        waiters.forEach(waiter -> waiter.complete(uriStats));
+                    });
+                });
+    }
+
+    @FunctionalInterface
+    interface StatsQuery {
+        CompletableFuture<List<HitOutputDto>> fetch(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                                    boolean unique);
+    }
+
+    private static class UriBatch {
+        private final BatchKey key;
+        private final Map<String, List<CompletableFuture<List<HitOutputDto>>>> waiters = new LinkedHashMap<>();
+        private LocalDateTime end;
+
+        private UriBatch(BatchKey key) {
+            this.key = key;
+        }
+
+        private void add(LocalDateTime end, String uri, CompletableFuture<List<HitOutputDto>> waiter) {
+            this.end = this.end == null || end.isAfter(this.end) ? end : this.end;
+            waiters.computeIfAbsent(uri, key -> new ArrayList<>()).add(waiter);
+        }
+    }
+
+    private static class BatchKey {
+        private final LocalDateTime start;
+        private final boolean unique;
+
+        private BatchKey(LocalDateTime start, boolean unique) {
+            this.start = start.truncatedTo(ChronoUnit.SECONDS);
+            this.unique = unique;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BatchKey)) {
+                return false;
+            }
+            BatchKey other = (BatchKey) o;
+            return unique == other.unique && start.equals(other.start);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(start, unique);
+        }
+    }
+
+    private static class Query {
+        private final LocalDateTime start;
+        private final LocalDateTime end;
+        private final List<String> uris;
+        private final boolean unique;
+
+        private Query(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique) {
+            this.start = start.truncatedTo(ChronoUnit.SECONDS);
+            this.end = end.truncatedTo(ChronoUnit.SECONDS);
+            this.uris = uris != null ? List.copyOf(uris) : null;
+            this.unique = unique;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Query)) {
+                return false;
+            }
+            Query other = (Query) o;
+            return unique == other.unique && start.equals(other.start) && end.equals(other.end)
+                    && Objects.equals(uris, other.uris);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(start, end, uris, unique);
+        }
+    }
+}
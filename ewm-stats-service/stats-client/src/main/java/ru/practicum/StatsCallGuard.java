@@ -0,0 +1,125 @@
+package ru.practicum;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Предохранитель и ограничитель одновременных вызовов сервера статистики, общий для всех клиентов.
+ * После STATS_SERVER_BREAKER_FAILURES неудач подряд цепь размыкается, и вызовы сразу получают
+ * {@link StatsUnavailableException}; через STATS_SERVER_BREAKER_OPEN_MS пропускается один пробный вызов, и его
+ * успех замыкает цепь. Неудача — исключение или тайм-аут, но не ответ 4xx: сервер тогда жив. Одновременно
+ * выполняется не больше STATS_SERVER_MAX_CONCURRENT_CALLS вызовов, лишние отклоняются без ожидания.
+ */
+@Component
+public class StatsCallGuard {
+    private static final Log log = LogFactory.getLog(StatsCallGuard.class);
+    private final int failureThreshold;
+    private final long openNanos;
+    private final Semaphore permits;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicBoolean trial = new AtomicBoolean();
+    private volatile long openedAt;
+    private volatile boolean open;
+
+    @Autowired
+    public StatsCallGuard(@Value("${STATS_SERVER_BREAKER_FAILURES:5}") int failureThreshold,
+                          @Value("${STATS_SERVER_BREAKER_OPEN_MS:10000}") long openMs,
+                          @Value("${STATS_SERVER_MAX_CONCURRENT_CALLS:20}") int maxConcurrentCalls) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+        this.permits = new Semaphore(Math.max(1, maxConcurrentCalls));
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public <T> T call(Supplier<T> call) {
+        acquire();
+        try {
+            T result = call.get();
+            onSuccess();
+            return result;
+        } catch (HttpClientErrorException e) {
+            onSuccess();
+            throw e;
+        } catch (RuntimeException e) {
+            onFailure();
+            throw e;
+        } finally {
+            permits.release();
+        }
+    }
+
+    public <T> CompletableFuture<T> callAsync(Supplier<CompletableFuture<T>> call) {
+        try {
+            acquire();
+        } catch (StatsUnavailableException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            permits.release();
+            onFailure();
+            return CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((ignored, e) -> {
+            permits.release();
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause == null || cause instanceof HttpClientErrorException) {
+                onSuccess();
+            } else {
+                onFailure();
+            }
+        });
+    }
+
+    private void acquire() {
+        if (open && (System.nanoTime() - openedAt < openNanos || !trial.compareAndSet(false, true))) {
+            throw new StatsUnavailableException("Сервер статистики недоступен, цепь разомкнута.");
+        }
+        if (!permits.tryAcquire()) {
+            if (open) {
+                trial.set(false);
+            }
+            throw new StatsUnavailableException("Слишком много одновременных запросов к серверу статистики.");
+        }
+    }
+
+    private void onSuccess() {
+        failures.set(0);
+        if (open) {
+            open = false;
+            trial.set(false);
+            log.info("Сервер статистики снова отвечает, цепь замкнута.");
+        }
+    }
+
+    private void onFailure() {
+        if (open) {
+            openedAt = System.nanoTime();
+            trial.set(false);
+            return;
+        }
+        if (failures.incrementAndGet() >= failureThreshold) {
+            openedAt = System.nanoTime();
+            open = true;
+            log.warn("Сервер статистики не ответил " + failureThreshold + " раз подряд, цепь разомкнута на "
+                    + TimeUnit.NANOSECONDS.toMillis(openNanos) + " мс.");
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package ru.practicum;
+
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Вызов сервера статистики не выполнялся: цепь разомкнута или занято предельное число одновременных вызовов.
+ */
+public class StatsUnavailableException extends ResourceAccessException {
+    public StatsUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,187 @@
+package ru.practicum;
+
+import org.springframework.http.MediaType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Двоичный формат просмотров и статистики: записи идут подряд до конца потока. Запись начинается байтом
+ * с битами заполненных полей, строки — длина varint и байты UTF-8, число просмотров — varint, время —
+ * миллисекунды от эпохи (UTC) в zigzag varint.
+ */
+public final class HitCodec {
+    public static final String MEDIA_TYPE_VALUE = "application/x-ewm-hits";
+    public static final MediaType MEDIA_TYPE = MediaType.valueOf(MEDIA_TYPE_VALUE);
+    private static final int MAX_STRING_BYTES = 1 << 16;
+    private static final int APP = 1;
+    private static final int URI = 1 << 1;
+    private static final int IP = 1 << 2;
+    private static final int TIMESTAMP = 1 << 3;
+    private static final int HITS = 1 << 2;
+
+    private HitCodec() {
+    }
+
+    public static void writeHit(HitInputDto hit, OutputStream output) throws IOException {
+        output.write((hit.getApp() != null ? APP : 0) | (hit.getUri() != null ? URI : 0)
+                | (hit.getIp() != null ? IP : 0) | (hit.getTimestamp() != null ? TIMESTAMP : 0));
+        writeString(hit.getApp(), output);
+        writeString(hit.getUri(), output);
+        writeString(hit.getIp(), output);
+        if (hit.getTimestamp() != null) {
+            long millis = hit.getTimestamp().toInstant(ZoneOffset.UTC).toEpochMilli();
+            writeVarLong(millis << 1 ^ millis >> 63, output);
+        }
+    }
+
+    /**
+     * Следующий просмотр или null, если поток закончился на границе записи.
+     */
+    public static HitInputDto readHit(InputStream input) throws IOException {
+        int fields = input.read();
+        if (fields < 0) {
+            return null;
+        }
+        HitInputDto hit = new HitInputDto();
+        hit.setApp(readString(fields, APP, input));
+        hit.setUri(readString(fields, URI, input));
+        hit.setIp(readString(fields, IP, input));
+        if ((fields & TIMESTAMP) != 0) {
+            long zigzag = readVarLong(input);
+            long millis = zigzag >>> 1 ^ -(zigzag & 1);
+            hit.setTimestamp(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+        }
+        return hit;
+    }
+
+    /**
+     * Следующий просмотр из буфера с массивом: строки собираются прямо из массива, без промежуточных
+     * копий и потока. Буфер сдвигается за прочитанную запись.
+     */
+    public static HitInputDto readHit(ByteBuffer input) throws IOException {
+        try {
+            int fields = input.get() & 0xFF;
+            HitInputDto hit = new HitInputDto();
+            hit.setApp(readString(fields, APP, input));
+            hit.setUri(readString(fields, URI, input));
+            hit.setIp(readString(fields, IP, input));
+            if ((fields & TIMESTAMP) != 0) {
+                long zigzag = readVarLong(input);
+                long millis = zigzag >>> 1 ^ -(zigzag & 1);
+                hit.setTimestamp(LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000),
+                        (int) Math.floorMod(millis, 1000) * 1_000_000, ZoneOffset.UTC));
+            }
+            return hit;
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("Запись оборвана.");
+        }
+    }
+
+    public static void writeHitStat(HitOutputDto hitStat, OutputStream output) throws IOException {
+        output.write((hitStat.getApp() != null ? APP : 0) | (hitStat.getUri() != null ? URI : 0)
+                | (hitStat.getHits() != null ? HITS : 0));
+        writeString(hitStat.getApp(), output);
+        writeString(hitStat.getUri(), output);
+        if (hitStat.getHits() != null) {
+            writeVarLong(hitStat.getHits(), output);
+        }
+    }
+
+    /**
+     * Следующая строка статистики или null, если поток закончился на границе записи.
+     */
+    public static HitOutputDto readHitStat(InputStream input) throws IOException {
+        int fields = input.read();
+        if (fields < 0) {
+            return null;
+        }
+        HitOutputDto hitStat = new HitOutputDto();
+        hitStat.setApp(readString(fields, APP, input));
+        hitStat.setUri(readString(fields, URI, input));
+        if ((fields & HITS) != 0) {
+            hitStat.setHits(readVarLong(input));
+        }
+        return hitStat;
+    }
+
+    private static void writeString(String value, OutputStream output) throws IOException {
+        if (value == null) {
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length, output);
+        output.write(bytes);
+    }
+
+    private static String readString(int fields, int field, InputStream input) throws IOException {
+        if ((fields & field) == 0) {
+            return null;
+        }
+        long length = readVarLong(input);
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Длина строки " + length + " вне допустимых пределов.");
+        }
+        byte[] bytes = input.readNBytes((int) length);
+        if (bytes.length < length) {
+            throw new EOFException("Запись оборвана посреди строки.");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readString(int fields, int field, ByteBuffer input) throws IOException {
+        if ((fields & field) == 0) {
+            return null;
+        }
+        long length = readVarLong(input);
+        if (length < 0 || length > input.remaining()) {
+            throw new IOException("Длина строки " + length + " вне допустимых пределов.");
+        }
+        int position = input.position();
+        input.position(position + (int) length);
+        return new String(input.array(), input.arrayOffset() + position, (int) length, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarLong(long value, OutputStream output) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    private static long readVarLong(InputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = input.read();
+            if (b < 0) {
+                throw new EOFException("Запись оборвана посреди числа.");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Число varint длиннее 64 бит.");
+    }
+
+    private static long readVarLong(ByteBuffer input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = input.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Число varint длиннее 64 бит.");
+    }
+}
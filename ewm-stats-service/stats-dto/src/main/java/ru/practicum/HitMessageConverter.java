@@ -0,0 +1,125 @@
+package ru.practicum;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.lang.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HitInputDto, HitOutputDto и их списки в формате HitCodec. Список без параметра типа (тело запроса
+ * RestTemplate) принимается к записи, а его элементы проверяются при записи.
+ */
+public class HitMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+
+    public HitMessageConverter() {
+        super(HitCodec.MEDIA_TYPE);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return clazz == HitInputDto.class || clazz == HitOutputDto.class || List.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, @Nullable MediaType mediaType) {
+        return elementType(clazz) != null && canRead(mediaType);
+    }
+
+    @Override
+    public boolean canRead(Type type, @Nullable Class<?> contextClass, @Nullable MediaType mediaType) {
+        return elementType(type) != null && canRead(mediaType);
+    }
+
+    @Override
+    public boolean canWrite(@Nullable Type type, Class<?> clazz, @Nullable MediaType mediaType) {
+        return supports(clazz) && (!(type instanceof ParameterizedType) || elementType(type) != null)
+                && canWrite(mediaType);
+    }
+
+    @Override
+    public Object read(Type type, @Nullable Class<?> contextClass, HttpInputMessage inputMessage)
+            throws IOException {
+        Class<?> element = elementType(type);
+        if (element == null) {
+            throw new HttpMessageNotReadableException("Тип " + type + " не поддерживается.", inputMessage);
+        }
+        InputStream input = new BufferedInputStream(inputMessage.getBody());
+        try {
+            if (element == type) {
+                Object item = readItem(element, input);
+                if (item == null) {
+                    throw new HttpMessageNotReadableException("Тело запроса пусто.", inputMessage);
+                }
+                return item;
+            }
+            List<Object> items = new ArrayList<>();
+            for (Object item = readItem(element, input); item != null; item = readItem(element, input)) {
+                items.add(item);
+            }
+            return items;
+        } catch (IOException e) {
+            throw new HttpMessageNotReadableException("Некорректная запись: " + e.getMessage(), e, inputMessage);
+        }
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        return read(clazz, null, inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(Object object, @Nullable Type type, HttpOutputMessage outputMessage)
+            throws IOException {
+        OutputStream output = new BufferedOutputStream(outputMessage.getBody());
+        if (object instanceof List) {
+            for (Object item : (List<?>) object) {
+                writeItem(item, output);
+            }
+        } else {
+            writeItem(object, output);
+        }
+        output.flush();
+    }
+
+    private static Object readItem(Class<?> element, InputStream input) throws IOException {
+        return element == HitInputDto.class ? HitCodec.readHit(input) : HitCodec.readHitStat(input);
+    }
+
+    private static void writeItem(Object item, OutputStream output) throws IOException {
+        if (item instanceof HitInputDto) {
+            HitCodec.writeHit((HitInputDto) item, output);
+        } else if (item instanceof HitOutputDto) {
+            HitCodec.writeHitStat((HitOutputDto) item, output);
+        } else {
+            throw new HttpMessageNotWritableException("Тип " + (item != null ? item.getClass() : null) +
+                    " не поддерживается.");
+        }
+    }
+
+    @Nullable
+    private static Class<?> elementType(Type type) {
+        if (type == HitInputDto.class || type == HitOutputDto.class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == List.class) {
+            Type argument = ((ParameterizedType) type).getActualTypeArguments()[0];
+            if (argument == HitInputDto.class || argument == HitOutputDto.class) {
+                return (Class<?>) argument;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,40 @@
+package ru.practicum;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import javax.validation.constraints.PositiveOrZero;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Тело POST /stats/query. Страница задаётся offset или cursor из заголовка X-Stats-Next-Cursor предыдущего ответа;
+ * sort — hits (по убыванию просмотров) или uri.
+ */
+@Data
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class HitQueryDto {
+    public static final String NEXT_CURSOR_HEADER = "X-Stats-Next-Cursor";
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    @NotNull(message = "start пуст.")
+    LocalDateTime start;
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    @NotNull(message = "end пуст.")
+    LocalDateTime end;
+    List<String> uris;
+    String app;
+    boolean unique;
+    boolean approximate;
+    @Positive(message = "limit должен быть положительным.")
+    Integer limit;
+    @PositiveOrZero(message = "offset не может быть отрицательным.")
+    Integer offset;
+    String cursor;
+    String sort;
+}
@@ -0,0 +1,203 @@
+package ru.practicum.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.HitOutputDto;
+import ru.practicum.model.Hit;
+import ru.practicum.page.StatsPage;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Кэш ответов /stats с вытеснением давно не запрошенных. Интервал, закрытый больше closed-after-ms назад, живёт
+ * closed-ttl-ms (ноль — без срока), а просмотр, записанный с опозданием в такой интервал, сразу удаляет его из
+ * кэша; ключи проиндексированы по концу интервала, и поиск задетых идёт только среди закончившихся не раньше
+ * опоздавшего просмотра. Интервал у текущего момента ключуется началом и концом, округлёнными вниз до live-ttl-ms,
+ * и живёт столько же, так что ответ отстаёт от базы не больше чем на live-ttl-ms. Страницы POST /stats/query кэшируются так же, вместе
+ * с параметрами страницы; страницы после курсора не кэшируются — каждая из них запрашивается обычно один раз.
+ */
+@Component
+public class StatsCache {
+    private static final long NEVER = Long.MIN_VALUE;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long liveTtlMillis;
+    private final long closedAfterMillis;
+    private final long closedTtlMillis;
+    private final Map<Key, Entry> entries;
+    private final NavigableMap<Long, Set<Key>> keysByEnd = new TreeMap<>();
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    private final Counter invalidations;
+    private long generation;
+
+    public StatsCache(MeterRegistry meterRegistry,
+                      @Value("${stats.cache.enabled:true}") boolean enabled,
+                      @Value("${stats.cache.max-entries:10000}") int maxEntries,
+                      @Value("${stats.cache.live-ttl-ms:1000}") long liveTtlMillis,
+                      @Value("${stats.cache.closed-after-ms:60000}") long closedAfterMillis,
+                      @Value("${stats.cache.closed-ttl-ms:3600000}") long closedTtlMillis) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.liveTtlMillis = liveTtlMillis;
+        this.closedAfterMillis = closedAfterMillis;
+        this.closedTtlMillis = closedTtlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                boolean evict = size() > StatsCache.this.maxEntries;
+                if (evict) {
+                    unindex(eldest.getKey());
+                    evictions.increment();
+                }
+                return evict;
+            }
+        };
+        this.hits = meterRegistry.counter("stats.cache.requests", "result", "hit");
+        this.misses = meterRegistry.counter("stats.cache.requests", "result", "miss");
+        this.evictions = meterRegistry.counter("stats.cache.evictions");
+        this.invalidations = meterRegistry.counter("stats.cache.invalidations");
+        Gauge.builder("stats.cache.size", this, StatsCache::size).register(meterRegistry);
+    }
+
+    public List<HitOutputDto> get(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                  boolean approximate, Supplier<List<HitOutputDto>> loader) {
+        return get(start, end, uris, unique, approximate, null, loader);
+    }
+
+    /**
+     * Страница без uri тоже кэшируется: её размер ограничен limit.
+     */
+    public List<HitOutputDto> get(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                  boolean approximate, StatsPage page, Supplier<List<HitOutputDto>> loader) {
+        if (!enabled || uris == null && page == null || page != null && page.getAfter() != null) {
+            return loader.get();
+        }
+        boolean live = end.isAfter(LocalDateTime.now().minus(closedAfterMillis, ChronoUnit.MILLIS));
+        long endMillis = end.toInstant(ZoneOffset.UTC).toEpochMilli();
+        Key key = new Key(uris != null ? List.copyOf(new TreeSet<>(uris)) : null, unique, approximate,
+                live ? floorToLiveTtl(start) : start,
+                live ? endMillis - Math.floorMod(endMillis, liveTtlMillis) : endMillis, page);
+        long now = System.nanoTime();
+        Entry entry;
+        long loadedGeneration;
+        synchronized (entries) {
+            entry = entries.get(key);
+            loadedGeneration = generation;
+        }
+        if (entry != null && (entry.expiresAt == NEVER || now - entry.expiresAt < 0)) {
+            hits.increment();
+            return entry.hitStats;
+        }
+        misses.increment();
+        List<HitOutputDto> hitStats = List.copyOf(loader.get());
+        long expiresAt = live ? now + liveTtlMillis * 1_000_000
+                : closedTtlMillis > 0 ? now + closedTtlMillis * 1_000_000 : NEVER;
+        synchronized (entries) {
+            if (loadedGeneration == generation) {
+                entries.put(key, new Entry(hitStats, expiresAt));
+                keysByEnd.computeIfAbsent(key.end, keyEnd -> new HashSet<>()).add(key);
+            }
+        }
+        return hitStats;
+    }
+
+    /**
+     * Удаляет закрытые интервалы, в которые попали записанные с опозданием просмотры. Поколение увеличивается,
+     * чтобы ответ, посчитанный до записи, не лёг в кэш уже после неё.
+     */
+    public void invalidate(List<Hit> written) {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime closedBefore = LocalDateTime.now().minus(closedAfterMillis, ChronoUnit.MILLIS);
+        LocalDateTime earliest = null;
+        LocalDateTime latest = null;
+        for (Hit hit : written) {
+            LocalDateTime timestamp = hit.getTimestamp();
+            if (timestamp.isBefore(closedBefore)) {
+                earliest = earliest == null || timestamp.isBefore(earliest) ? timestamp : earliest;
+                latest = latest == null || timestamp.isAfter(latest) ? timestamp : latest;
+            }
+        }
+        if (earliest == null) {
+            return;
+        }
+        long earliestMillis = earliest.toInstant(ZoneOffset.UTC).toEpochMilli();
+        LocalDateTime last = latest;
+        int removed = 0;
+        synchronized (entries) {
+            generation++;
+            Iterator<Set<Key>> ends = keysByEnd.tailMap(earliestMillis, true).values().iterator();
+            while (ends.hasNext()) {
+                Set<Key> keys = ends.next();
+                Iterator<Key> iterator = keys.iterator();
+                while (iterator.hasNext()) {
+                    Key key = iterator.next();
+                    if (!key.start.isAfter(last)) {
+                        iterator.remove();
+                        entries.remove(key);
+                        removed++;
+                    }
+                }
+                if (keys.isEmpty()) {
+                    ends.remove();
+                }
+            }
+        }
+        invalidations.increment(removed);
+    }
+
+    private void unindex(Key key) {
+        Set<Key> keys = keysByEnd.get(key.end);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            keysByEnd.remove(key.end);
+        }
+    }
+
+    private LocalDateTime floorToLiveTtl(LocalDateTime timestamp) {
+        long millis = timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis - Math.floorMod(millis, liveTtlMillis)),
+                ZoneOffset.UTC);
+    }
+
+    private int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Data
+    private static class Key {
+        private final List<String> uris;
+        private final boolean unique;
+        private final boolean approximate;
+        private final LocalDateTime start;
+        private final long end;
+        private final StatsPage page;
+    }
+
+    @Data
+    private static class Entry {
+        private final List<HitOutputDto> hitStats;
+        private final long expiresAt;
+    }
+}
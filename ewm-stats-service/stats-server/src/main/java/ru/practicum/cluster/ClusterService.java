@@ -0,0 +1,334 @@
+package ru.practicum.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import ru.practicum.HitCodec;
+import ru.practicum.HitInputDto;
+import ru.practicum.HitOutputDto;
+import ru.practicum.HitQueryDto;
+import ru.practicum.HitSeriesDto;
+import ru.practicum.TimeSeriesDto;
+import ru.practicum.exception.ShardUnavailableException;
+import ru.practicum.model.HitKey;
+import ru.practicum.page.PageCollector;
+import ru.practicum.page.StatsPage;
+import ru.practicum.service.HitService;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Узел кластера принимает любые запросы: просмотр пересылается шарду, владеющему его uri, а статистика собирается
+ * с шардов, владеющих запрошенными uri (без фильтра — со всех), и сливается. Пара (app, uri) живёт ровно на одном
+ * шарде, поэтому числа просмотров, в том числе уникальных и приближённых, складываются без слияния множеств ip.
+ */
+@Slf4j
+@Service
+public class ClusterService {
+    private final ShardMap shardMap;
+    private final ShardClient shardClient;
+    private final HitService hitService;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService fanOut;
+
+    public ClusterService(ShardMap shardMap, ShardClient shardClient, HitService hitService,
+                          ObjectMapper objectMapper,
+                          @Value("${stats.cluster.fan-out-threads:16}") int fanOutThreads) {
+        this.shardMap = shardMap;
+        this.shardClient = shardClient;
+        this.hitService = hitService;
+        this.objectMapper = objectMapper;
+        this.fanOut = Executors.newFixedThreadPool(fanOutThreads, new CustomizableThreadFactory("shard-fan-out-"));
+    }
+
+    @PreDestroy
+    public void stop() {
+        fanOut.shutdown();
+    }
+
+    public boolean isEnabled() {
+        return shardMap.isEnabled();
+    }
+
+    public void addHit(HitInputDto hitInputDto) {
+        int owner = shardMap.owner(hitInputDto.getUri());
+        if (shardMap.isLocal(owner)) {
+            hitService.addHit(hitInputDto);
+            return;
+        }
+        shardClient.addHit(owner, hitInputDto);
+        log.debug("Просмотр {} переслан шарду {}.", hitInputDto.getUri(), owner);
+    }
+
+    public void addHits(List<HitInputDto> hitInputDtos) {
+        hitService.validate(hitInputDtos, 0);
+        route(hitInputDtos);
+        log.info("Разослано шардам {} просмотров.", hitInputDtos.size());
+    }
+
+    /**
+     * Проверенные просмотры из датаграмм: свои пишутся как одиночный /hit, чужие пересылаются пачкой.
+     * Возвращает, сколько просмотров принято: отказ одного шарда не отменяет принятого другими.
+     */
+    public int enqueueHits(List<HitInputDto> hitInputDtos) {
+        return scatter(shardMap.byOwner(hitInputDtos, HitInputDto::getUri), (shard, hits) -> {
+            try {
+                if (shardMap.isLocal(shard)) {
+                    return hitService.enqueueHits(hits);
+                }
+                shardClient.addHits(shard, hits);
+                return hits.size();
+            } catch (RuntimeException e) {
+                log.warn("Шард {} не принял {} просмотров из датаграмм: {}", shard, hits.size(), e.getMessage());
+                return 0;
+            }
+        }).values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * Поток NDJSON рассылается кусками по мере чтения; кусок, уже принятый шардами, при ошибке в следующих
+     * не откатывается.
+     */
+    public void addHits(InputStream ndjson) {
+        int count = hitService.readHits(ndjson, (chunk, offset) -> {
+            hitService.validate(chunk, offset);
+            route(chunk);
+        });
+        log.info("Разослано шардам {} просмотров из потока.", count);
+    }
+
+    /**
+     * Флаг estimated поднимается, если ответ хотя бы одного шарда досчитан по журналу выборки.
+     */
+    public List<HitOutputDto> getHitStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                          boolean approximate, AtomicBoolean estimated) {
+        hitService.checkRange(start, end);
+        Map<Integer, List<String>> requests = uris != null
+                ? shardMap.byUriOwner(uris)
+                : shardMap.everyShard();
+        if (requests.isEmpty()) {
+            return getLocalHitStats(start, end, uris, unique, approximate, estimated);
+        }
+        Map<Integer, List<HitOutputDto>> responses = scatter(requests, (shard, shardUris) -> shardMap.isLocal(shard)
+                ? getLocalHitStats(start, end, shardUris, unique, approximate, estimated)
+                : shardClient.getHitStats(shard, start, end, shardUris, unique, approximate, estimated));
+        List<HitOutputDto> hitStats = merge(responses.values());
+        log.info("Статистика собрана с шардов {}.", responses.keySet());
+        return hitStats;
+    }
+
+    /**
+     * Шарды отдают по offset + limit первых строк после курсора, и страница отбирается из их слитых ответов тем же
+     * порядком: пара (app, uri) живёт на одном шарде, поэтому строки шардов не пересекаются.
+     */
+    public List<HitOutputDto> getHitStatsPage(HitQueryDto query, StatsPage page, AtomicBoolean estimated) {
+        Map<Integer, List<String>> requests = query.getUris() != null
+                ? shardMap.byUriOwner(query.getUris())
+                : shardMap.everyShard();
+        if (requests.isEmpty()) {
+            return getLocalHitStatsPage(query, query.getUris(), page, estimated);
+        }
+        StatsPage shardPage = page.forShard();
+        Map<Integer, List<HitOutputDto>> responses = scatter(requests, (shard, shardUris) -> shardMap.isLocal(shard)
+                ? getLocalHitStatsPage(query, shardUris, shardPage, estimated)
+                : shardClient.getHitStatsPage(shard, query.toBuilder()
+                        .uris(shardUris)
+                        .limit(shardPage.getLimit())
+                        .offset(null)
+                        .build(), estimated));
+        PageCollector collector = page.collector();
+        responses.values().forEach(hitStats -> hitStats.forEach(collector));
+        log.info("Страница статистики собрана с шардов {}.", responses.keySet());
+        return collector.rows();
+    }
+
+    private List<HitOutputDto> getLocalHitStatsPage(HitQueryDto query, List<String> uris, StatsPage page,
+                                                    AtomicBoolean estimated) {
+        if (hitService.isEstimated(query.getStart(), query.getEnd())) {
+            estimated.set(true);
+        }
+        return hitService.getHitStatsPage(query.getStart(), query.getEnd(), uris, query.isUnique(),
+                query.isApproximate(), page);
+    }
+
+    private List<HitOutputDto> getLocalHitStats(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                                boolean unique, boolean approximate, AtomicBoolean estimated) {
+        if (hitService.isEstimated(start, end)) {
+            estimated.set(true);
+        }
+        return hitService.getHitStats(start, end, uris, unique, approximate);
+    }
+
+    /**
+     * Собранная с шардов статистика пишется целиком: в режиме кластера GET /stats без uris не потоковый, весь
+     * слитый список держится в памяти. Заголовки ответа зависят от ответов всех шардов, а шарды отдают статистику
+     * списками, поэтому тело начинается только после того, как собраны все ответы.
+     */
+    public void writeHitStats(List<HitOutputDto> hitStats, boolean binary, OutputStream output) throws IOException {
+        if (!binary) {
+            objectMapper.writeValue(output, hitStats);
+            return;
+        }
+        OutputStream buffered = new BufferedOutputStream(output);
+        for (HitOutputDto hitStat : hitStats) {
+            HitCodec.writeHitStat(hitStat, buffered);
+        }
+        buffered.flush();
+    }
+
+    public TimeSeriesDto getTimeSeries(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                       String interval) {
+        hitService.checkRange(start, end);
+        Map<Integer, List<String>> requests = uris != null
+                ? shardMap.byUriOwner(uris)
+                : shardMap.everyShard();
+        if (requests.isEmpty()) {
+            return hitService.getTimeSeries(start, end, uris, unique, interval);
+        }
+        Map<Integer, TimeSeriesDto> responses = scatter(requests, (shard, shardUris) -> shardMap.isLocal(shard)
+                ? hitService.getTimeSeries(start, end, shardUris, unique, interval)
+                : shardClient.getTimeSeries(shard, start, end, shardUris, unique, interval));
+        TimeSeriesDto timeSeries = null;
+        Map<HitKey, HitSeriesDto> series = new LinkedHashMap<>();
+        for (Map.Entry<Integer, TimeSeriesDto> entry : responses.entrySet()) {
+            TimeSeriesDto response = entry.getValue();
+            if (timeSeries == null) {
+                timeSeries = response;
+            }
+            checkAligned(entry.getKey(), response, timeSeries);
+            for (HitSeriesDto hitSeries : response.getSeries()) {
+                series.merge(new HitKey(hitSeries.getApp(), hitSeries.getUri()), hitSeries, ClusterService::sum);
+            }
+        }
+        timeSeries.setSeries(series.values().stream()
+                .sorted(Comparator.comparingLong((HitSeriesDto hitSeries) ->
+                        Arrays.stream(hitSeries.getHits()).sum()).reversed())
+                .collect(Collectors.toList()));
+        log.info("Ряд собран с шардов {}.", responses.keySet());
+        return timeSeries;
+    }
+
+    /**
+     * Шарды не пересекаются по uri, так что первые k объединения лучших k каждого шарда — лучшие k кластера
+     * с той же точностью, что и у шардов.
+     */
+    public List<HitOutputDto> getTopHits(int k, String window) {
+        hitService.checkTop(k, window);
+        Map<Integer, List<HitOutputDto>> responses = scatter(shardMap.everyShard(), (shard, ignored) ->
+                shardMap.isLocal(shard) ? hitService.getTopHits(k, window) : shardClient.getTopHits(shard, k, window));
+        return merge(responses.values()).stream()
+                .limit(k)
+                .collect(Collectors.toList());
+    }
+
+    private void route(List<HitInputDto> hitInputDtos) {
+        scatter(shardMap.byOwner(hitInputDtos, HitInputDto::getUri), (shard, hits) -> {
+            if (shardMap.isLocal(shard)) {
+                hitService.addHits(hits);
+            } else {
+                shardClient.addHits(shard, hits);
+            }
+            return hits.size();
+        });
+    }
+
+    /**
+     * Запросы к чужим шардам уходят параллельно, свой шард обслуживается в текущем потоке. Ответы ждутся все,
+     * даже если какой-то шард уже ответил ошибкой; затем выбрасывается первая ошибка.
+     */
+    private <T, R> Map<Integer, R> scatter(Map<Integer, T> requests, BiFunction<Integer, T, R> call) {
+        Map<Integer, CompletableFuture<R>> remote = new TreeMap<>();
+        requests.forEach((shard, request) -> {
+            if (!shardMap.isLocal(shard)) {
+                remote.put(shard, CompletableFuture.supplyAsync(() -> call.apply(shard, request), fanOut));
+            }
+        });
+        Map<Integer, R> responses = new TreeMap<>();
+        RuntimeException failure = null;
+        if (requests.containsKey(shardMap.getSelf())) {
+            try {
+                responses.put(shardMap.getSelf(), call.apply(shardMap.getSelf(), requests.get(shardMap.getSelf())));
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        for (Map.Entry<Integer, CompletableFuture<R>> entry : remote.entrySet()) {
+            try {
+                responses.put(entry.getKey(), entry.getValue().join());
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return responses;
+    }
+
+    private static List<HitOutputDto> merge(Collection<List<HitOutputDto>> responses) {
+        Map<HitKey, Long> counts = new HashMap<>();
+        for (List<HitOutputDto> response : responses) {
+            for (HitOutputDto hitStat : response) {
+                counts.merge(new HitKey(hitStat.getApp(), hitStat.getUri()), hitStat.getHits(), Long::sum);
+            }
+        }
+        List<HitOutputDto> hitStats = new ArrayList<>(counts.size());
+        counts.forEach((key, hits) -> hitStats.add(new HitOutputDto(key.getApp(), key.getUri(), hits)));
+        hitStats.sort(Comparator.comparing(HitOutputDto::getHits).reversed());
+        return hitStats;
+    }
+
+    /**
+     * Ряды шардов складываются по номеру корзины, поэтому начало, интервал и число корзин у всех должны совпадать:
+     * расхождение значит, что узлы кластера настроены или собраны по-разному.
+     */
+    private static void checkAligned(int shard, TimeSeriesDto response, TimeSeriesDto first) {
+        boolean aligned = response.getBuckets() != null
+                && Objects.equals(response.getStart(), first.getStart())
+                && Objects.equals(response.getInterval(), first.getInterval())
+                && Objects.equals(response.getBuckets(), first.getBuckets())
+                && response.getSeries().stream().allMatch(hitSeries ->
+                hitSeries.getHits().length == response.getBuckets()
+                        && (hitSeries.getUnique() == null || hitSeries.getUnique().length == response.getBuckets()));
+        if (!aligned) {
+            throw new ShardUnavailableException("Шард " + shard + " вернул ряд с началом " + response.getStart() +
+                    ", интервалом " + response.getInterval() + " и " + response.getBuckets() + " корзинами, " +
+                    "а ожидался ряд с началом " + first.getStart() + ", интервалом " + first.getInterval() + " и " +
+                    first.getBuckets() + " корзинами.");
+        }
+    }
+
+    private static HitSeriesDto sum(HitSeriesDto current, HitSeriesDto other) {
+        Arrays.setAll(current.getHits(), i -> current.getHits()[i] + other.getHits()[i]);
+        if (current.getUnique() != null && other.getUnique() != null) {
+            Arrays.setAll(current.getUnique(), i -> current.getUnique()[i] + other.getUnique()[i]);
+        }
+        return current;
+    }
+}
@@ -0,0 +1,165 @@
+package ru.practicum.cluster;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+import ru.practicum.HitCodec;
+import ru.practicum.HitInputDto;
+import ru.practicum.HitMessageConverter;
+import ru.practicum.HitOutputDto;
+import ru.practicum.HitQueryDto;
+import ru.practicum.TimeSeriesDto;
+import ru.practicum.exception.ShardUnavailableException;
+import ru.practicum.exception.TooManyRequestsException;
+import ru.practicum.exception.ValidationException;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Запросы к другим узлам кластера в двоичном формате HitCodec. Пересланный запрос помечен заголовком
+ * X-Stats-Forwarded: получатель обслуживает его своим шардом и дальше не рассылает.
+ */
+@Component
+public class ShardClient {
+    public static final String FORWARDED_HEADER = "X-Stats-Forwarded";
+    public static final String ESTIMATED_HEADER = "X-Stats-Estimated";
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final ParameterizedTypeReference<List<HitOutputDto>> HIT_STATS =
+            new ParameterizedTypeReference<>() {
+            };
+    private final ShardMap shardMap;
+    private final RestTemplate rest;
+
+    public ShardClient(ShardMap shardMap, RestTemplateBuilder builder,
+                       @Value("${stats.cluster.connect-timeout-ms:1000}") long connectTimeoutMs,
+                       @Value("${stats.cluster.read-timeout-ms:30000}") long readTimeoutMs) {
+        this.shardMap = shardMap;
+        this.rest = builder
+                .setConnectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .setReadTimeout(Duration.ofMillis(readTimeoutMs))
+                .defaultHeader(FORWARDED_HEADER, "true")
+                .additionalMessageConverters(new HitMessageConverter())
+                .build();
+    }
+
+    public void addHit(int shard, HitInputDto hitInputDto) {
+        RequestEntity<HitInputDto> request = RequestEntity.post(uri(shard, "/hit").build().toUri())
+                .contentType(HitCodec.MEDIA_TYPE)
+                .body(hitInputDto);
+        call(shard, () -> rest.exchange(request, Void.class));
+    }
+
+    public void addHits(int shard, List<HitInputDto> hitInputDtos) {
+        RequestEntity<List<HitInputDto>> request = RequestEntity.post(uri(shard, "/hits/batch").build().toUri())
+                .contentType(HitCodec.MEDIA_TYPE)
+                .body(hitInputDtos);
+        call(shard, () -> rest.exchange(request, Void.class));
+    }
+
+    public List<HitOutputDto> getHitStats(int shard, LocalDateTime start, LocalDateTime end, List<String> uris,
+                                          boolean unique, boolean approximate, AtomicBoolean estimated) {
+        UriComponentsBuilder uri = uri(shard, "/stats")
+                .queryParam("start", start.format(FORMATTER))
+                .queryParam("end", end.format(FORMATTER))
+                .queryParam("unique", unique)
+                .queryParam("approximate", approximate);
+        if (uris != null) {
+            uri.queryParam("uris", uris.toArray());
+        }
+        return estimatedBody(call(shard, () -> rest.exchange(hitStatsRequest(uri.encode().build().toUri()),
+                HIT_STATS)), estimated);
+    }
+
+    public List<HitOutputDto> getHitStatsPage(int shard, HitQueryDto query, AtomicBoolean estimated) {
+        RequestEntity<HitQueryDto> request = RequestEntity.post(uri(shard, "/stats/query").build().toUri())
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(HitCodec.MEDIA_TYPE, MediaType.APPLICATION_JSON)
+                .body(query);
+        return estimatedBody(call(shard, () -> rest.exchange(request, HIT_STATS)), estimated);
+    }
+
+    public TimeSeriesDto getTimeSeries(int shard, LocalDateTime start, LocalDateTime end, List<String> uris,
+                                       boolean unique, String interval) {
+        UriComponentsBuilder uri = uri(shard, "/stats/timeseries")
+                .queryParam("start", start.format(FORMATTER))
+                .queryParam("end", end.format(FORMATTER))
+                .queryParam("unique", unique)
+                .queryParam("interval", interval);
+        if (uris != null) {
+            uri.queryParam("uris", uris.toArray());
+        }
+        return call(shard, () -> rest.getForObject(uri.encode().build().toUri(), TimeSeriesDto.class));
+    }
+
+    public List<HitOutputDto> getTopHits(int shard, int k, String window) {
+        URI uri = uri(shard, "/stats/top")
+                .queryParam("k", k)
+                .queryParam("window", window)
+                .encode()
+                .build()
+                .toUri();
+        return call(shard, () -> body(rest.exchange(hitStatsRequest(uri), HIT_STATS)));
+    }
+
+    /**
+     * Оценочность ответа шарда (X-Stats-Estimated) поднимается во флаг estimated.
+     */
+    private static List<HitOutputDto> estimatedBody(ResponseEntity<List<HitOutputDto>> response,
+                                                    AtomicBoolean estimated) {
+        if (Boolean.parseBoolean(response.getHeaders().getFirst(ESTIMATED_HEADER))) {
+            estimated.set(true);
+        }
+        return body(response);
+    }
+
+    /**
+     * Пустая выборка приходит в HitCodec без тела, RestTemplate отдаёт её как null.
+     */
+    private static List<HitOutputDto> body(ResponseEntity<List<HitOutputDto>> response) {
+        List<HitOutputDto> body = response.getBody();
+        return body == null ? List.of() : body;
+    }
+
+    private static RequestEntity<Void> hitStatsRequest(URI uri) {
+        return RequestEntity.get(uri)
+                .accept(HitCodec.MEDIA_TYPE, MediaType.APPLICATION_JSON)
+                .build();
+    }
+
+    private UriComponentsBuilder uri(int shard, String path) {
+        return UriComponentsBuilder.fromHttpUrl(shardMap.node(shard)).path(path);
+    }
+
+    private <T> T call(int shard, Supplier<T> request) {
+        try {
+            return request.get();
+        } catch (HttpStatusCodeException e) {
+            if (e.getStatusCode() == HttpStatus.BAD_REQUEST) {
+                throw new ValidationException("Шард " + shard + " отклонил запрос: " + e.getResponseBodyAsString());
+            }
+            if (e.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) {
+                throw new TooManyRequestsException("Шард " + shard + " перегружен.");
+            }
+            throw new ShardUnavailableException("Шард " + shard + " (" + shardMap.node(shard) + ") ответил " +
+                    e.getRawStatusCode() + ".");
+        } catch (RestClientException e) {
+            throw new ShardUnavailableException("Шард " + shard + " (" + shardMap.node(shard) + ") недоступен: " +
+                    e.getMessage());
+        }
+    }
+}
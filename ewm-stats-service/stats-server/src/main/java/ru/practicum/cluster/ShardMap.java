@@ -0,0 +1,87 @@
+package ru.practicum.cluster;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.sketch.HyperLogLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Статическая карта шардов: stats.cluster.nodes — базовые адреса узлов по порядку номеров шардов,
+ * stats.cluster.self — номер этого узла. uri принадлежит шарду hash(uri) mod число узлов; при одном узле
+ * кластер выключен.
+ */
+@Component
+public class ShardMap {
+    private final List<String> nodes;
+    private final int self;
+
+    public ShardMap(@Value("${stats.cluster.nodes:}") List<String> nodes,
+                    @Value("${stats.cluster.self:0}") int self) {
+        this.nodes = nodes.stream()
+                .map(String::trim)
+                .filter(node -> !node.isEmpty())
+                .map(node -> node.endsWith("/") ? node.substring(0, node.length() - 1) : node)
+                .collect(Collectors.toList());
+        this.self = self;
+        if (isEnabled() && (self < 0 || self >= this.nodes.size())) {
+            throw new IllegalStateException("stats.cluster.self должен быть от 0 до " + (this.nodes.size() - 1) +
+                    ", указан " + self + ".");
+        }
+    }
+
+    public boolean isEnabled() {
+        return nodes.size() > 1;
+    }
+
+    public int getSelf() {
+        return self;
+    }
+
+    public boolean isLocal(int shard) {
+        return shard == self;
+    }
+
+    public String node(int shard) {
+        return nodes.get(shard);
+    }
+
+    public int owner(String uri) {
+        return (int) Math.floorMod(HyperLogLog.hash(uri), (long) nodes.size());
+    }
+
+    public <T> Map<Integer, List<T>> byOwner(Collection<T> items, Function<T, String> uri) {
+        Map<Integer, List<T>> groups = new TreeMap<>();
+        for (T item : items) {
+            groups.computeIfAbsent(owner(uri.apply(item)), shard -> new ArrayList<>()).add(item);
+        }
+        return groups;
+    }
+
+    /**
+     * Запросы статистики к шардам, владеющим uri. Пустые uri (как от завершающей запятой в списке) пропускаются:
+     * иначе шард получил бы пустой фильтр.
+     */
+    public Map<Integer, List<String>> byUriOwner(List<String> uris) {
+        return byOwner(uris.stream()
+                .filter(uri -> !uri.isBlank())
+                .collect(Collectors.toList()), Function.identity());
+    }
+
+    /**
+     * Запрос ко всем шардам без фильтра по uri.
+     */
+    public Map<Integer, List<String>> everyShard() {
+        Map<Integer, List<String>> shards = new TreeMap<>();
+        for (int shard = 0; shard < nodes.size(); shard++) {
+            shards.put(shard, null);
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,20 @@
+package ru.practicum.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import ru.practicum.HitMessageConverter;
+
+import java.util.List;
+
+/**
+ * Двоичный формат добавляется после JSON, так что он выбирается только по явному Content-Type или Accept.
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new HitMessageConverter());
+    }
+}
@@ -2,34 +2,198 @@ package ru.practicum.controller;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.practicum.HitCodec;
 import ru.practicum.HitInputDto;
 import ru.practicum.HitOutputDto;
+import ru.practicum.HitQueryDto;
+import ru.practicum.TimeSeriesDto;
+import ru.practicum.cluster.ClusterService;
+import ru.practicum.cluster.ShardClient;
+import ru.practicum.page.StatsPage;
 import ru.practicum.service.HitService;
+import ru.practicum.sketch.HyperLogLog;
 
 import javax.validation.Valid;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RestController
 @RequiredArgsConstructor
 public class HitController {
     private static final String DATE_TIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    private static final String APPROXIMATE_HEADER = "X-Stats-Approximate";
+    private static final String ERROR_BOUND_HEADER = "X-Stats-Error-Bound";
     private final HitService hitService;
+    private final ClusterService clusterService;
 
     @PostMapping("/hit")
     @ResponseStatus(HttpStatus.CREATED)
-    public void addHit(@Valid @RequestBody HitInputDto hitInputDto) {
-        hitService.addHit(hitInputDto);
+    public void addHit(
+            @Valid @RequestBody HitInputDto hitInputDto,
+            @RequestHeader(value = ShardClient.FORWARDED_HEADER, defaultValue = "false") boolean forwarded) {
+        if (routed(forwarded)) {
+            clusterService.addHit(hitInputDto);
+        } else {
+            hitService.addHit(hitInputDto);
+        }
     }
 
-    @GetMapping("/stats")
-    public List<HitOutputDto> getHitStats(
+    @PostMapping(value = "/hits/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, HitCodec.MEDIA_TYPE_VALUE})
+    @ResponseStatus(HttpStatus.CREATED)
+    public void addHits(
+            @RequestBody List<HitInputDto> hitInputDtos,
+            @RequestHeader(value = ShardClient.FORWARDED_HEADER, defaultValue = "false") boolean forwarded) {
+        if (routed(forwarded)) {
+            clusterService.addHits(hitInputDtos);
+        } else {
+            hitService.addHits(hitInputDtos);
+        }
+    }
+
+    @PostMapping(value = "/hits/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public void addHits(
+            InputStream ndjson,
+            @RequestHeader(value = ShardClient.FORWARDED_HEADER, defaultValue = "false") boolean forwarded) {
+        if (routed(forwarded)) {
+            clusterService.addHits(ndjson);
+        } else {
+            hitService.addHits(ndjson);
+        }
+    }
+
+    @GetMapping(value = "/stats", params = "uris")
+    public ResponseEntity<List<HitOutputDto>> getHitStats(
             @RequestParam @DateTimeFormat(pattern = DATE_TIME_FORMAT) LocalDateTime start,
             @RequestParam @DateTimeFormat(pattern = DATE_TIME_FORMAT) LocalDateTime end,
             @RequestParam(required = false) List<String> uris,
-            @RequestParam(required = false) boolean unique) {
-        return hitService.getHitStats(start, end, uris, unique);
+            @RequestParam(required = false) boolean unique,
+            @RequestParam(required = false) boolean approximate,
+            @RequestHeader(value = ShardClient.FORWARDED_HEADER, defaultValue = "false") boolean forwarded) {
+        if (routed(forwarded)) {
+            AtomicBoolean estimated = new AtomicBoolean();
+            List<HitOutputDto> hitStats = clusterService.getHitStats(start, end, uris, unique, approximate, estimated);
+            return statsResponse(unique, approximate, estimated.get()).body(hitStats);
+        }
+        List<HitOutputDto> hitStats = hitService.getHitStats(start, end, uris, unique, approximate);
+        return statsResponse(unique, approximate, hitService.isEstimated(start, end)).body(hitStats);
+    }
+
+    @GetMapping(value = "/stats", params = "!uris")
+    public ResponseEntity<StreamingResponseBody> streamHitStats(
+            @RequestParam @DateTimeFormat(pattern = DATE_TIME_FORMAT) LocalDateTime start,
+            @RequestParam @DateTimeFormat(pattern = DATE_TIME_FORMAT) LocalDateTime end,
+            @RequestParam(required = false) boolean unique,
+            @RequestParam(required = false) boolean approximate,
+            @RequestHeader(value = ShardClient.FORWARDED_HEADER, defaultValue = "false") boolean forwarded,
+            @RequestHeader(value = HttpHeaders.ACCEPT, defaultValue = MediaType.ALL_VALUE) String accept) {
+        hitService.checkRange(start, end);
+        boolean binary = prefersBinary(accept);
+        MediaType contentType = binary ? HitCodec.MEDIA_TYPE : MediaType.APPLICATION_JSON;
+        if (routed(forwarded)) {
+            AtomicBoolean estimated = new AtomicBoolean();
+            List<HitOutputDto> hitStats = clusterService.getHitStats(start, end, null, unique, approximate, estimated);
+            return statsResponse(unique, approximate, estimated.get())
+                    .contentType(contentType)
+                    .body(output -> clusterService.writeHitStats(hitStats, binary, output));
+        }
+        return statsResponse(unique, approximate, hitService.isEstimated(start, end))
+                .contentType(contentType)
+                .body(output -> hitService.writeHitStats(start, end, unique, approximate, binary, output));
+    }
+
+    /**
+     * Статистика по телу запроса: длинные списки uri не упираются в длину URL, а ответ ограничен страницей.
+     * Курсор следующей страницы приходит в заголовке X-Stats-Next-Cursor.
+     */
+    @PostMapping("/stats/query")
+    public ResponseEntity<List<HitOutputDto>> queryHitStats(
+            @Valid @RequestBody HitQueryDto query,
+            @RequestHeader(value = ShardClient.FORWARDED_HEADER, defaultValue = "false") boolean forwarded) {
+        StatsPage page = hitService.toPage(query, forwarded);
+        AtomicBoolean estimated = new AtomicBoolean();
+        List<HitOutputDto> hitStats;
+        if (routed(forwarded)) {
+            hitStats = clusterService.getHitStatsPage(query, page, estimated);
+        } else {
+            hitStats = hitService.getHitStatsPage(query.getStart(), query.getEnd(), query.getUris(), query.isUnique(),
+                    query.isApproximate(), page);
+            estimated.set(hitService.isEstimated(query.getStart(), query.getEnd()));
+        }
+        ResponseEntity.BodyBuilder response = statsResponse(query.isUnique(), query.isApproximate(), estimated.get());
+        String nextCursor = page.nextCursor(hitStats);
+        if (nextCursor != null) {
+            response.header(HitQueryDto.NEXT_CURSOR_HEADER, nextCursor);
+        }
+        return response.body(page.rows(hitStats));
+    }
+
+    @GetMapping("/stats/timeseries")
+    public TimeSeriesDto getTimeSeries(
+            @RequestParam @DateTimeFormat(pattern = DATE_TIME_FORMAT) LocalDateTime start,
+            @RequestParam @DateTimeFormat(pattern = DATE_TIME_FORMAT) LocalDateTime end,
+            @RequestParam(required = false) List<String> uris,
+            @RequestParam(required = false) boolean unique,
+            @RequestParam(defaultValue = "hour") String interval,
+            @RequestHeader(value = ShardClient.FORWARDED_HEADER, defaultValue = "false") boolean forwarded) {
+        return routed(forwarded)
+                ? clusterService.getTimeSeries(start, end, uris, unique, interval)
+                : hitService.getTimeSeries(start, end, uris, unique, interval);
+    }
+
+    @GetMapping("/stats/top")
+    public ResponseEntity<List<HitOutputDto>> getTopHits(
+            @RequestParam(defaultValue = "10") int k,
+            @RequestParam(defaultValue = "hour") String window,
+            @RequestHeader(value = ShardClient.FORWARDED_HEADER, defaultValue = "false") boolean forwarded) {
+        return ResponseEntity.ok()
+                .header(APPROXIMATE_HEADER, "true")
+                .body(routed(forwarded) ? clusterService.getTopHits(k, window) : hitService.getTopHits(k, window));
+    }
+
+    /**
+     * Запрос от клиента обслуживает весь кластер, пересланный другим узлом — только свой шард.
+     */
+    private boolean routed(boolean forwarded) {
+        return clusterService.isEnabled() && !forwarded;
+    }
+
+    /**
+     * Поток отдаётся в двоичном формате, только если среди поддерживаемых типов Accept он предпочтительнее JSON.
+     */
+    private static boolean prefersBinary(String accept) {
+        List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(mediaTypes);
+        return mediaTypes.stream()
+                .filter(mediaType -> mediaType.isCompatibleWith(MediaType.APPLICATION_JSON)
+                        || mediaType.isCompatibleWith(HitCodec.MEDIA_TYPE))
+                .findFirst()
+                .map(HitCodec.MEDIA_TYPE::equalsTypeAndSubtype)
+                .orElse(false);
+    }
+
+    /**
+     * Ответ за интервал, где запись шла с выборкой, помечается X-Stats-Estimated: просмотры досчитаны по журналу
+     * отброшенных, а уникальные ip взяты из скетчей.
+     */
+    private ResponseEntity.BodyBuilder statsResponse(boolean unique, boolean approximate, boolean estimated) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (estimated) {
+            response.header(ShardClient.ESTIMATED_HEADER, "true");
+        }
+        if (!hitService.isApproximate(unique, approximate || estimated)) {
+            return response;
+        }
+        return response
+                .header(APPROXIMATE_HEADER, "true")
+                .header(ERROR_BOUND_HEADER, String.valueOf(HyperLogLog.RELATIVE_ERROR));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,116 @@
+package ru.practicum.dictionary;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Словари app и uri: строка хранится в базе один раз, в просмотрах — только её целочисленный id.
+ * Новые значения записываются отдельной транзакцией, чтобы откат пачки не оставил в кэше id без строки.
+ */
+@Slf4j
+@Component
+public class HitDictionary {
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate dictionaryTransaction;
+    private final Entries apps = new Entries("hit_apps", "app_id", "name");
+    private final Entries uris = new Entries("hit_uris", "uri_id", "uri");
+
+    public HitDictionary(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionaryTransaction = new TransactionTemplate(transactionManager);
+        this.dictionaryTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public int appId(String app) {
+        return apps.idOf(app);
+    }
+
+    public int uriId(String uri) {
+        return uris.idOf(uri);
+    }
+
+    public String app(int appId) {
+        return apps.valueOf(appId);
+    }
+
+    public String uri(int uriId) {
+        return uris.valueOf(uriId);
+    }
+
+    public List<Integer> knownUriIds(Collection<String> values) {
+        List<Integer> ids = new ArrayList<>(values.size());
+        for (String value : values) {
+            Integer id = uris.findId(value);
+            if (id != null) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private class Entries {
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private final Map<Integer, String> values = new ConcurrentHashMap<>();
+        private final String table;
+        private final String idColumn;
+        private final String valueColumn;
+
+        Entries(String table, String idColumn, String valueColumn) {
+            this.table = table;
+            this.idColumn = idColumn;
+            this.valueColumn = valueColumn;
+        }
+
+        int idOf(String value) {
+            Integer id = findId(value);
+            if (id != null) {
+                return id;
+            }
+            dictionaryTransaction.executeWithoutResult(status -> jdbcTemplate.update("INSERT INTO " + table +
+                    " (" + valueColumn + ") VALUES (?) ON CONFLICT (" + valueColumn + ") DO NOTHING", value));
+            id = findId(value);
+            log.debug("Значение {} добавлено в словарь {} с id {}.", value, table, id);
+            return id;
+        }
+
+        Integer findId(String value) {
+            Integer cached = ids.get(value);
+            if (cached != null) {
+                return cached;
+            }
+            List<Integer> found = jdbcTemplate.queryForList("SELECT " + idColumn + " FROM " + table +
+                    " WHERE " + valueColumn + " = ?", Integer.class, value);
+            if (found.isEmpty()) {
+                return null;
+            }
+            remember(found.get(0), value);
+            return found.get(0);
+        }
+
+        String valueOf(int id) {
+            String cached = values.get(id);
+            if (cached != null) {
+                return cached;
+            }
+            String value = jdbcTemplate.queryForObject("SELECT " + valueColumn + " FROM " + table +
+                    " WHERE " + idColumn + " = ?", String.class, id);
+            remember(id, value);
+            return value;
+        }
+
+        private void remember(int id, String value) {
+            ids.put(value, id);
+            values.put(id, value);
+        }
+    }
+}
@@ -19,6 +19,27 @@ public class ControllerExceptionHandler {
         return createResponseApiError(HttpStatus.BAD_REQUEST, "Incorrectly made request.", e.getMessage());
     }
 
+    @ExceptionHandler(NotFoundException.class)
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    public ResponseApiError notFoundException(NotFoundException e) {
+        log.warn("{}: {}", e.getStackTrace()[0].getMethodName(), e.getMessage());
+        return createResponseApiError(HttpStatus.NOT_FOUND, "The required object was not found.", e.getMessage());
+    }
+
+    @ExceptionHandler(TooManyRequestsException.class)
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    public ResponseApiError tooManyRequestsException(TooManyRequestsException e) {
+        log.warn("{}: {}", e.getStackTrace()[0].getMethodName(), e.getMessage());
+        return createResponseApiError(HttpStatus.TOO_MANY_REQUESTS, "Too many requests.", e.getMessage());
+    }
+
+    @ExceptionHandler(ShardUnavailableException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ResponseApiError shardUnavailableException(ShardUnavailableException e) {
+        log.error("{}: {}", e.getStackTrace()[0].getMethodName(), e.getMessage());
+        return createResponseApiError(HttpStatus.SERVICE_UNAVAILABLE, "Shard unavailable.", e.getMessage());
+    }
+
     private ResponseApiError createResponseApiError(HttpStatus status, String errorTitle, String errorMessage) {
         return new ResponseApiError(
                 status,
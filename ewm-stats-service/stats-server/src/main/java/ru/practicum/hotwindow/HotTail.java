@@ -0,0 +1,41 @@
+package ru.practicum.hotwindow;
+
+import lombok.Value;
+import ru.practicum.model.TimeRange;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Часть запроса, которую отвечает окно в памяти: минуты с from и, если endIncluded, последняя неполная минута
+ * до end. Остальное остаётся базе.
+ */
+@Value
+public class HotTail {
+    private static final long SEALED_GAP_NANOS = 1_000;
+    LocalDateTime from;
+    LocalDateTime end;
+    boolean endIncluded;
+
+    public LocalDateTime getTo() {
+        return endIncluded ? end : end.truncatedTo(ChronoUnit.MINUTES);
+    }
+
+    public List<TimeRange> sealedRanges(LocalDateTime start) {
+        List<TimeRange> ranges = new ArrayList<>(2);
+        if (start.isBefore(from)) {
+            // created хранится с точностью до микросекунды, так что минус микросекунда — это граница «строго до from»
+            ranges.add(new TimeRange(start, from.minusNanos(SEALED_GAP_NANOS)));
+        }
+        if (!endIncluded) {
+            ranges.add(new TimeRange(getTo(), end));
+        }
+        return ranges;
+    }
+
+    public boolean coversAll(LocalDateTime start) {
+        return sealedRanges(start).isEmpty();
+    }
+}
@@ -0,0 +1,167 @@
+package ru.practicum.hotwindow;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.model.Hit;
+import ru.practicum.model.HitKey;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Счётчики просмотров за последние N минут: кольцо минутных ячеек с LongAdder и множествами ip по (app, uri).
+ * Ячейка переиспользуется, когда приходит просмотр на минуту, отстоящую на N; минута считается известной,
+ * только если все её просмотры после старта сервера попали в ячейку.
+ */
+@Component
+public class HotWindow {
+    private final int minutes;
+    private final AtomicReferenceArray<MinuteSlot> slots;
+    private final long coveredFrom;
+
+    public HotWindow(@Value("${stats.hot-window.minutes:0}") int minutes) {
+        this.minutes = minutes;
+        this.slots = new AtomicReferenceArray<>(Math.max(minutes, 1));
+        this.coveredFrom = epochMinute(LocalDateTime.now()) + 1;
+    }
+
+    public boolean isEnabled() {
+        return minutes > 0;
+    }
+
+    public void record(List<Hit> hits) {
+        for (Hit hit : hits) {
+            MinuteSlot slot = slotFor(epochMinute(hit.getTimestamp()));
+            if (slot != null) {
+                slot.add(hit);
+            }
+        }
+    }
+
+    /**
+     * Хвост запроса, который целиком есть в памяти, или null. Он начинается на границе минуты не раньше start;
+     * последняя неполная минута берётся из памяти, только если в ней нет просмотров позже end.
+     */
+    public HotTail tail(LocalDateTime start, LocalDateTime end) {
+        if (!isEnabled()) {
+            return null;
+        }
+        long last = epochMinute(end);
+        MinuteSlot lastSlot = slots.get(index(last));
+        boolean endIncluded = isKnown(last)
+                && (lastSlot == null || lastSlot.minute != last || lastSlot.maxTimestamp.get() <= toNanos(end));
+        long first = Math.max(Math.max(ceilMinute(start), coveredFrom), last - minutes + 1);
+        long tail = endIncluded ? last : last - 1;
+        if (first > tail || !isKnown(tail)) {
+            return null;
+        }
+        while (tail > first && isKnown(tail - 1)) {
+            tail--;
+        }
+        return new HotTail(toLocalDateTime(tail), end, endIncluded);
+    }
+
+    public Map<HitKey, Long> counts(HotTail tail, List<String> uris) {
+        Map<HitKey, Long> counts = new HashMap<>();
+        forEachCounter(tail, uris, (key, counter) -> counts.merge(key, counter.hits.sum(), Long::sum));
+        return counts;
+    }
+
+    public Map<HitKey, Set<String>> ips(HotTail tail, List<String> uris) {
+        Map<HitKey, Set<String>> ips = new HashMap<>();
+        forEachCounter(tail, uris, (key, counter) ->
+                ips.computeIfAbsent(key, k -> new HashSet<>()).addAll(counter.ips));
+        return ips;
+    }
+
+    private void forEachCounter(HotTail tail, List<String> uris, BiConsumer<HitKey, Counter> action) {
+        Set<String> uriFilter = uris != null ? new HashSet<>(uris) : null;
+        long last = tail.isEndIncluded() ? epochMinute(tail.getEnd()) : epochMinute(tail.getEnd()) - 1;
+        for (long minute = epochMinute(tail.getFrom()); minute <= last; minute++) {
+            MinuteSlot slot = slots.get(index(minute));
+            if (slot == null || slot.minute != minute) {
+                continue;
+            }
+            slot.counters.forEach((key, counter) -> {
+                if (uriFilter == null || uriFilter.contains(key.getUri())) {
+                    action.accept(key, counter);
+                }
+            });
+        }
+    }
+
+    private MinuteSlot slotFor(long minute) {
+        int index = index(minute);
+        while (true) {
+            MinuteSlot slot = slots.get(index);
+            if (slot != null && slot.minute == minute) {
+                return slot;
+            }
+            if (slot != null && slot.minute > minute) {
+                return null;
+            }
+            MinuteSlot fresh = new MinuteSlot(minute);
+            if (slots.compareAndSet(index, slot, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    private boolean isKnown(long minute) {
+        MinuteSlot slot = slots.get(index(minute));
+        return minute >= coveredFrom && (slot == null || slot.minute <= minute);
+    }
+
+    private int index(long minute) {
+        return (int) Math.floorMod(minute, (long) slots.length());
+    }
+
+    private static long epochMinute(LocalDateTime timestamp) {
+        return Math.floorDiv(timestamp.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    private static long ceilMinute(LocalDateTime timestamp) {
+        long minute = epochMinute(timestamp);
+        return toLocalDateTime(minute).equals(timestamp) ? minute : minute + 1;
+    }
+
+    private static long toNanos(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + timestamp.getNano();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMinute) {
+        return LocalDateTime.ofEpochSecond(epochMinute * 60, 0, ZoneOffset.UTC);
+    }
+
+    private static class MinuteSlot {
+        private final long minute;
+        private final Map<HitKey, Counter> counters = new ConcurrentHashMap<>();
+        private final LongAccumulator maxTimestamp = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+        private MinuteSlot(long minute) {
+            this.minute = minute;
+        }
+
+        private void add(Hit hit) {
+            Counter counter = counters.computeIfAbsent(new HitKey(hit.getApp(), hit.getUri()), key -> new Counter());
+            counter.hits.increment();
+            counter.ips.add(hit.getIp());
+            maxTimestamp.accumulate(toNanos(hit.getTimestamp()));
+        }
+    }
+
+    private static class Counter {
+        private final LongAdder hits = new LongAdder();
+        private final Set<String> ips = ConcurrentHashMap.newKeySet();
+    }
+}
@@ -0,0 +1,65 @@
+package ru.practicum.ingestion;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.HitInputDto;
+import ru.practicum.model.Hit;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Просмотры, которые очередь записи так и не смогла записать, дописываются в файл NDJSON
+ * stats.ingestion.dead-letter-file. Файл отправляется обратно как есть: POST /hits/batch с типом
+ * application/x-ndjson. Пустой путь выключает файл, и такие просмотры только учитываются в логе и метриках.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.ingestion.mode", havingValue = "async")
+public class DeadLetterFile {
+    private final ObjectMapper objectMapper;
+    private final Path file;
+
+    public DeadLetterFile(ObjectMapper objectMapper,
+                          @Value("${stats.ingestion.dead-letter-file:}") String path) {
+        this.objectMapper = objectMapper;
+        this.file = path.isBlank() ? null : Path.of(path);
+    }
+
+    /**
+     * false, если файл выключен или запись не удалась, и тогда просмотры потеряны.
+     */
+    public synchronized boolean append(List<Hit> hits) {
+        if (file == null) {
+            return false;
+        }
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+                 SequenceWriter lines = objectMapper.writerFor(HitInputDto.class).withRootValueSeparator("\n")
+                         .writeValues(writer)) {
+                for (Hit hit : hits) {
+                    lines.write(new HitInputDto(null, hit.getApp(), hit.getUri(), hit.getIp(), hit.getTimestamp()));
+                }
+                lines.flush();
+                writer.write('\n');
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("Не удалось дописать {} просмотров в файл {}: {}", hits.size(), file, e.getMessage());
+            return false;
+        }
+    }
+}
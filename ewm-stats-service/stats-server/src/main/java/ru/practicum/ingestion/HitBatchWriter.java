@@ -0,0 +1,96 @@
+package ru.practicum.ingestion;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.cache.StatsCache;
+import ru.practicum.hotwindow.HotWindow;
+import ru.practicum.model.Hit;
+import ru.practicum.sampling.SamplingService;
+import ru.practicum.sketch.SketchService;
+import ru.practicum.store.HitStore;
+import ru.practicum.topk.TopHits;
+
+import java.util.List;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HitBatchWriter {
+    private final HitStore hitStore;
+    private final SketchService sketchService;
+    private final HotWindow hotWindow;
+    private final TopHits topHits;
+    private final SamplingService samplingService;
+    private final MeterRegistry meterRegistry;
+    private final TransactionTemplate transactionTemplate;
+    private final StatsCache statsCache;
+    @Value("${stats.sketch.enabled:true}")
+    private boolean sketchEnabled;
+
+    /**
+     * Секции и id словаря готовятся до транзакции: пока она держит соединение, писатель не ждёт второго из того же
+     * пула. Поэтому метод не вызывается внутри чужой транзакции: её соединение было бы занято всё это время.
+     */
+    public void write(List<Hit> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        hitStore.prepare(hits);
+        transactionTemplate.executeWithoutResult(status -> append(hits));
+    }
+
+    /**
+     * Просмотр, отброшенный выборкой, в хранилище не пишется, но попадает в журнал выборки и в счётчики в памяти:
+     * скетчи, горячее окно и топ остаются полными.
+     */
+    public void recordDropped(Hit hit, int rate) {
+        samplingService.record(hit, rate);
+        record(List.of(hit));
+    }
+
+    private void append(List<Hit> hits) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        hitStore.append(hits);
+        sample.stop(Timer.builder("stats.hits.write")
+                .description("Время записи пачки просмотров в хранилище")
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+        DistributionSummary.builder("stats.hits.write.batch")
+                .description("Число просмотров в записанной пачке")
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(hits.size());
+        afterCommit(List.copyOf(hits));
+        log.debug("Записана пачка из {} просмотров.", hits.size());
+    }
+
+    private void afterCommit(List<Hit> hits) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                record(hits);
+            }
+        });
+    }
+
+    private void record(List<Hit> hits) {
+        statsCache.invalidate(hits);
+        if (sketchEnabled && hitStore.supportsSketches()) {
+            sketchService.record(hits);
+        }
+        if (hotWindow.isEnabled()) {
+            hotWindow.record(hits);
+        }
+        if (topHits.isEnabled()) {
+            topHits.record(hits);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package ru.practicum.ingestion;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.HitCodec;
+import ru.practicum.HitInputDto;
+import ru.practicum.cluster.ClusterService;
+import ru.practicum.service.HitService;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Приём просмотров по UDP без ответа отправителю. Датаграмма — одна или несколько записей в формате
+ * {@link HitCodec} подряд; оборванная датаграмма отбрасывается целиком, некорректные записи — поштучно.
+ * Принятые просмотры идут тем же путём, что и /hit, а в кластере — владельцам uri. Датаграммы учитываются в
+ * stats.udp.packets, записи — в stats.udp.records: принятые, отброшенные очередью и некорректные.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.udp.enabled", havingValue = "true")
+public class HitDatagramListener {
+    private static final int MAX_DATAGRAM_BYTES = 65_507;
+    private static final long SHUTDOWN_TIMEOUT_MS = 5_000;
+    private final HitService hitService;
+    private final ClusterService clusterService;
+    private final InetSocketAddress address;
+    private final int receiveBufferBytes;
+    private final int batchSize;
+    private final ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_BYTES);
+    private final List<HitInputDto> hits = new ArrayList<>();
+    private final Thread receiver = new Thread(this::receive, "hit-datagram-receiver");
+    private final Counter packets;
+    private final Counter malformed;
+    private final Counter accepted;
+    private final Counter dropped;
+    private final Counter invalid;
+    private DatagramChannel channel;
+    private Selector selector;
+    private volatile boolean running = true;
+
+    public HitDatagramListener(HitService hitService, ClusterService clusterService, MeterRegistry meterRegistry,
+                               @Value("${stats.udp.host:0.0.0.0}") String host,
+                               @Value("${stats.udp.port:9190}") int port,
+                               @Value("${stats.udp.receive-buffer-bytes:4194304}") int receiveBufferBytes,
+                               @Value("${stats.udp.batch-size:500}") int batchSize) {
+        this.hitService = hitService;
+        this.clusterService = clusterService;
+        this.address = new InetSocketAddress(host, port);
+        this.receiveBufferBytes = receiveBufferBytes;
+        this.batchSize = batchSize;
+        this.packets = meterRegistry.counter("stats.udp.packets", "result", "accepted");
+        this.malformed = meterRegistry.counter("stats.udp.packets", "result", "malformed");
+        this.accepted = meterRegistry.counter("stats.udp.records", "result", "accepted");
+        this.dropped = meterRegistry.counter("stats.udp.records", "result", "dropped");
+        this.invalid = meterRegistry.counter("stats.udp.records", "result", "invalid");
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferBytes);
+        channel.bind(address);
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        receiver.start();
+        log.info("Приём просмотров по UDP запущен на {}.", channel.getLocalAddress());
+    }
+
+    @PreDestroy
+    public void stop() throws IOException, InterruptedException {
+        running = false;
+        selector.wakeup();
+        receiver.join(SHUTDOWN_TIMEOUT_MS);
+        selector.close();
+        channel.close();
+        log.info("Приём просмотров по UDP остановлен.");
+    }
+
+    /**
+     * После пробуждения вычитывает все уже пришедшие датаграммы, пока не наберётся batch-size просмотров,
+     * и отдаёт их одной пачкой: пересылка шарду или запись в базу обходится одна на всплеск, а не на датаграмму.
+     */
+    private void receive() {
+        while (running) {
+            try {
+                selector.select();
+                selector.selectedKeys().clear();
+                drain();
+            } catch (IOException e) {
+                log.warn("Ошибка приёма датаграммы: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        hits.clear();
+        while (hits.size() < batchSize) {
+            buffer.clear();
+            if (channel.receive(buffer) == null) {
+                break;
+            }
+            buffer.flip();
+            if (decode()) {
+                packets.increment();
+            } else {
+                malformed.increment();
+            }
+        }
+        if (hits.isEmpty()) {
+            return;
+        }
+        int count = 0;
+        try {
+            count = clusterService.isEnabled()
+                    ? clusterService.enqueueHits(hits)
+                    : hitService.enqueueHits(hits);
+        } catch (RuntimeException e) {
+            log.warn("Не удалось принять {} просмотров из датаграмм: {}", hits.size(), e.getMessage());
+        }
+        accepted.increment(count);
+        dropped.increment(hits.size() - count);
+    }
+
+    /**
+     * Добавляет корректные просмотры датаграммы в пачку; оборванная датаграмма не оставляет в пачке ничего
+     * и учитывается только как битая, без подсчёта её записей.
+     */
+    private boolean decode() {
+        int mark = hits.size();
+        int skipped = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                HitInputDto hit = HitCodec.readHit(buffer);
+                if (hitService.isValid(hit)) {
+                    hits.add(hit);
+                } else {
+                    skipped++;
+                }
+            }
+        } catch (IOException e) {
+            hits.subList(mark, hits.size()).clear();
+            log.debug("Отброшена некорректная датаграмма: {}", e.getMessage());
+            return false;
+        }
+        invalid.increment(skipped);
+        return true;
+    }
+}
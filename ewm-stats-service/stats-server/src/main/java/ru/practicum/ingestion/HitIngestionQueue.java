@@ -0,0 +1,265 @@
+package ru.practicum.ingestion;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import ru.practicum.exception.TooManyRequestsException;
+import ru.practicum.model.Hit;
+import ru.practicum.sketch.HyperLogLog;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Просмотр подтверждается после постановки в очередь; писатели забирают их пачками и пишут одной транзакцией,
+ * как только набрано flush-size записей или прошло flush-latency-ms с момента первой. Число писателей
+ * ограничено половиной пула соединений. Незаписанная пачка повторяется, а то, что записать так и не удалось,
+ * уходит в {@link DeadLetterFile}.
+ * <p>
+ * С включённой выборкой очередь, заполненная больше чем на threshold, пропускает 1/N посетителей каждого uri
+ * по хешу (uri, ip); N удваивается по мере заполнения остатка очереди, до max-rate. Отброшенные просмотры
+ * учитываются в журнале выборки.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.ingestion.mode", havingValue = "async")
+public class HitIngestionQueue {
+    private static final long SHUTDOWN_TIMEOUT_MS = 30_000;
+    private final HitBatchWriter hitBatchWriter;
+    private final DeadLetterFile deadLetterFile;
+    private final BlockingQueue<Hit> queue;
+    private final int flushSize;
+    private final long flushLatencyNanos;
+    private final List<Thread> writers = new ArrayList<>();
+    private final Counter rejected;
+    private final Counter deadLettered;
+    private final Counter sampled;
+    private final int samplingThreshold;
+    private final int samplingSteps;
+    private final int retries;
+    private final long retryBackoffMs;
+    private final AtomicInteger offering = new AtomicInteger();
+    private volatile boolean accepting = true;
+    private volatile boolean running = true;
+
+    public HitIngestionQueue(HitBatchWriter hitBatchWriter, DeadLetterFile deadLetterFile,
+                             MeterRegistry meterRegistry,
+                             @Value("${stats.ingestion.queue-capacity:10000}") int queueCapacity,
+                             @Value("${stats.ingestion.flush-size:500}") int flushSize,
+                             @Value("${stats.ingestion.flush-latency-ms:50}") long flushLatencyMs,
+                             @Value("${stats.ingestion.writers:0}") int writerCount,
+                             @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+                             @Value("${stats.ingestion.retries:5}") int retries,
+                             @Value("${stats.ingestion.retry-backoff-ms:100}") long retryBackoffMs,
+                             @Value("${stats.sampling.enabled:false}") boolean samplingEnabled,
+                             @Value("${stats.sampling.threshold:0.5}") double samplingThreshold,
+                             @Value("${stats.sampling.max-rate:64}") int maxSamplingRate) {
+        this.hitBatchWriter = hitBatchWriter;
+        this.deadLetterFile = deadLetterFile;
+        this.retries = Math.max(0, retries);
+        this.retryBackoffMs = Math.max(1, retryBackoffMs);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flushSize = flushSize;
+        this.flushLatencyNanos = TimeUnit.MILLISECONDS.toNanos(flushLatencyMs);
+        int count = Math.min(writerCount > 0 ? writerCount : Runtime.getRuntime().availableProcessors(),
+                maxWriters(poolSize));
+        if (writerCount > count) {
+            log.warn("Писателей просмотров {} вместо {}: остальные соединения пула нужны запросам.", count,
+                    writerCount);
+        }
+        for (int i = 0; i < count; i++) {
+            writers.add(new Thread(this::drain, "hit-writer-" + (i + 1)));
+        }
+        this.samplingThreshold = samplingEnabled ? (int) (queueCapacity * samplingThreshold) : Integer.MAX_VALUE;
+        this.samplingSteps = Integer.numberOfTrailingZeros(Integer.highestOneBit(Math.max(maxSamplingRate, 2)));
+        this.rejected = meterRegistry.counter("stats.hits.rejected", "reason", "queue-full");
+        this.deadLettered = meterRegistry.counter("stats.hits.rejected", "reason", "write-failed");
+        this.sampled = meterRegistry.counter("stats.hits.sampled");
+        Gauge.builder("stats.ingestion.sampling.rate", this, HitIngestionQueue::samplingRate)
+                .description("Знаменатель выборки: пишется 1 из N посетителей uri")
+                .register(meterRegistry);
+        Gauge.builder("stats.ingestion.queue.size", queue, BlockingQueue::size).register(meterRegistry);
+        Gauge.builder("stats.ingestion.queue.capacity", queue, q -> q.size() + q.remainingCapacity())
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        writers.forEach(Thread::start);
+        log.info("Запущена асинхронная запись просмотров: писателей {}, пачка {}.", writers.size(), flushSize);
+    }
+
+    /**
+     * Сначала очередь перестаёт принимать просмотры и дожидается уже начатых offer, и только потом писатели
+     * дописывают остаток: подтверждённый просмотр не может попасть в очередь после ухода писателей, а отброшенный
+     * выборкой — в журнал выборки после остановки.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        accepting = false;
+        while (offering.get() > 0) {
+            Thread.onSpinWait();
+        }
+        running = false;
+        for (Thread writer : writers) {
+            writer.join(SHUTDOWN_TIMEOUT_MS);
+        }
+        log.info("Асинхронная запись просмотров остановлена, в очереди осталось {}.", queue.size());
+    }
+
+    public void offer(Hit hit) {
+        offering.incrementAndGet();
+        try {
+            if (!accepting) {
+                rejected.increment();
+                throw new TooManyRequestsException("Запись просмотров останавливается.");
+            }
+            int rate = samplingRate();
+            if (rate > 1 && ((HyperLogLog.hash(hit.getIp()) ^ HyperLogLog.hash(hit.getUri())) & (rate - 1)) != 0) {
+                hitBatchWriter.recordDropped(hit, rate);
+                sampled.increment();
+                return;
+            }
+            if (!queue.offer(hit)) {
+                rejected.increment();
+                throw new TooManyRequestsException("Очередь записи просмотров переполнена.");
+            }
+        } finally {
+            offering.decrementAndGet();
+        }
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * 1, пока очередь не дошла до порога; затем 2, 4, ... max-rate равными долями оставшейся ёмкости.
+     */
+    public int samplingRate() {
+        int backlog = queue.size();
+        if (backlog < samplingThreshold) {
+            return 1;
+        }
+        long span = Math.max(backlog + queue.remainingCapacity() - samplingThreshold, 1);
+        int step = (int) ((long) (backlog - samplingThreshold) * samplingSteps / span) + 1;
+        return 1 << Math.min(step, samplingSteps);
+    }
+
+    /**
+     * Писатели занимают не больше половины пула соединений, остальное остаётся запросам статистики.
+     */
+    private static int maxWriters(int poolSize) {
+        return Math.max(1, poolSize / 2);
+    }
+
+    private void drain() {
+        List<Hit> batch = new ArrayList<>(flushSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            flush(batch);
+        }
+    }
+
+    private void collect(List<Hit> batch) throws InterruptedException {
+        Hit first = queue.poll(flushLatencyNanos, TimeUnit.NANOSECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + flushLatencyNanos;
+        while (batch.size() < flushSize) {
+            if (queue.drainTo(batch, flushSize - batch.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            Hit next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<Hit> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            write(batch);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Временный отказ базы повторяется до retries раз с паузой от retry-backoff-ms, удваивающейся каждый раз.
+     * Остальные ошибки делят пачку пополам, пока не останется одна негодная запись. Что так и не записалось,
+     * уходит в {@link DeadLetterFile}.
+     */
+    private void write(List<Hit> hits) {
+        long backoff = retryBackoffMs;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                hitBatchWriter.write(hits);
+                return;
+            } catch (TransientDataAccessException | RecoverableDataAccessException
+                     | DataAccessResourceFailureException | CannotCreateTransactionException e) {
+                if (attempt == retries) {
+                    deadLetter(hits, e);
+                    return;
+                }
+                log.warn("Пачка из {} просмотров не записана, повтор через {} мс: {}", hits.size(), backoff,
+                        e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    deadLetter(hits, e);
+                    return;
+                }
+                backoff *= 2;
+            } catch (RuntimeException e) {
+                if (hits.size() == 1) {
+                    deadLetter(hits, e);
+                } else {
+                    write(hits.subList(0, hits.size() / 2));
+                    write(hits.subList(hits.size() / 2, hits.size()));
+                }
+                return;
+            }
+        }
+    }
+
+    private void deadLetter(List<Hit> hits, RuntimeException e) {
+        deadLettered.increment(hits.size());
+        if (deadLetterFile.append(hits)) {
+            log.error("Не удалось записать {} просмотров, они сохранены для повторной отправки: {}", hits.size(),
+                    e.getMessage());
+        } else {
+            log.error("Не удалось записать {} просмотров, они потеряны: {}", hits.size(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package ru.practicum.model;
+
+import lombok.Value;
+
+@Value
+public class HitKey {
+    String app;
+    String uri;
+}
@@ -0,0 +1,39 @@
+package ru.practicum.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public enum StorageLayout {
+    PLAIN("hits", "hits"),
+    DICTIONARY("hits_compact", "(SELECT a.name AS app, u.uri AS uri, host(h.ip) AS ip, h.created AS created " +
+            "FROM hits_compact h " +
+            "JOIN hit_apps a ON a.app_id = h.app_id " +
+            "JOIN hit_uris u ON u.uri_id = h.uri_id) hits");
+
+    private final String table;
+    private final String rawSource;
+
+    /**
+     * Сырые просмотры, сгруппированные по app, uri и, если задан, bucket: столбцы app, uri, bucket и hits. В
+     * словарной раскладке строки группируются и фильтруются по id, а имена подставляются уже в сгруппированный
+     * результат, а не в каждую сырую строку.
+     */
+    public String groupedRawSql(String bucket, String hits, String where, boolean filterUris) {
+        String bucketColumn = bucket != null ? ", " + bucket + " AS bucket" : "";
+        String bucketGroup = bucket != null ? ", " + bucket : "";
+        if (this == PLAIN) {
+            return "SELECT app, uri" + bucketColumn + ", " + hits + " AS hits FROM hits " +
+                    "WHERE " + where + (filterUris ? " AND uri = ANY(:uris)" : "") +
+                    " GROUP BY app, uri" + bucketGroup;
+        }
+        return "SELECT a.name AS app, u.uri AS uri" + (bucket != null ? ", r.bucket" : "") + ", r.hits " +
+                "FROM (SELECT app_id, uri_id" + bucketColumn + ", " + hits + " AS hits FROM hits_compact " +
+                "WHERE " + where +
+                (filterUris ? " AND uri_id IN (SELECT uri_id FROM hit_uris WHERE uri = ANY(:uris))" : "") +
+                " GROUP BY app_id, uri_id" + bucketGroup + ") r " +
+                "JOIN hit_apps a ON a.app_id = r.app_id " +
+                "JOIN hit_uris u ON u.uri_id = r.uri_id";
+    }
+}
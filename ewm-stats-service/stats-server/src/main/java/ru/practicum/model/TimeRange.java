@@ -0,0 +1,14 @@
+package ru.practicum.model;
+
+import lombok.Value;
+
+import java.time.LocalDateTime;
+
+/**
+ * Интервал [start, end] с включёнными границами, как у запросов статистики.
+ */
+@Value
+public class TimeRange {
+    LocalDateTime start;
+    LocalDateTime end;
+}
@@ -0,0 +1,40 @@
+package ru.practicum.page;
+
+import ru.practicum.HitOutputDto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Отбирает страницу из строк в любом порядке, держа в памяти не больше offset + limit + 1 лучших.
+ */
+public class PageCollector implements Consumer<HitOutputDto> {
+    private final StatsPage page;
+    private final long capacity;
+    private final PriorityQueue<HitOutputDto> best;
+
+    PageCollector(StatsPage page) {
+        this.page = page;
+        this.capacity = (long) page.getOffset() + page.getLimit() + 1;
+        this.best = new PriorityQueue<>(page.getOrder().getComparator().reversed());
+    }
+
+    @Override
+    public void accept(HitOutputDto hitStat) {
+        if (!page.accepts(hitStat)) {
+            return;
+        }
+        best.add(hitStat);
+        if (best.size() > capacity) {
+            best.poll();
+        }
+    }
+
+    public List<HitOutputDto> rows() {
+        List<HitOutputDto> rows = new ArrayList<>(best);
+        rows.sort(page.getOrder().getComparator());
+        return new ArrayList<>(rows.subList(Math.min(page.getOffset(), rows.size()), rows.size()));
+    }
+}
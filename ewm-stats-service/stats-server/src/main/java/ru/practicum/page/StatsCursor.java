@@ -0,0 +1,46 @@
+package ru.practicum.page;
+
+import ru.practicum.HitOutputDto;
+import ru.practicum.exception.ValidationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+
+/**
+ * Курсор — последняя строка страницы вместе с порядком, в base64url. Следующая страница начинается строго после
+ * неё, поэтому новые просмотры между запросами не сдвигают страницы, как offset.
+ */
+public final class StatsCursor {
+    private StatsCursor() {
+    }
+
+    public static String encode(StatsOrder order, HitOutputDto last) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeUTF(order.name());
+            output.writeUTF(last.getApp());
+            output.writeUTF(last.getUri());
+            output.writeLong(last.getHits());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    public static HitOutputDto decode(String cursor, StatsOrder order) {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(
+                Base64.getUrlDecoder().decode(cursor)))) {
+            if (!order.name().equals(input.readUTF())) {
+                throw new ValidationException("Курсор выдан для другой сортировки.");
+            }
+            return new HitOutputDto(input.readUTF(), input.readUTF(), input.readLong());
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ValidationException("Некорректный курсор.");
+        }
+    }
+}
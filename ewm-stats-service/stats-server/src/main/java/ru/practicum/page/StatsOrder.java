@@ -0,0 +1,30 @@
+package ru.practicum.page;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import ru.practicum.HitOutputDto;
+
+import java.util.Comparator;
+
+/**
+ * Порядок строк страницы. (app, uri) замыкают порядок, чтобы курсор указывал на единственное место; строки
+ * сравниваются побайтно (COLLATE "C"), как и String.compareTo при слиянии ответов в памяти.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum StatsOrder {
+    HITS(Comparator.comparing(HitOutputDto::getHits).reversed()
+            .thenComparing(HitOutputDto::getApp)
+            .thenComparing(HitOutputDto::getUri),
+            "p.hits DESC, p.app COLLATE \"C\", p.uri COLLATE \"C\"",
+            "(p.hits < :afterHits OR p.hits = :afterHits AND (p.app COLLATE \"C\" > :afterApp " +
+                    "OR p.app = :afterApp AND p.uri COLLATE \"C\" > :afterUri))"),
+    URI(Comparator.comparing(HitOutputDto::getUri)
+            .thenComparing(HitOutputDto::getApp),
+            "p.uri COLLATE \"C\", p.app COLLATE \"C\"",
+            "(p.uri COLLATE \"C\" > :afterUri OR p.uri = :afterUri AND p.app COLLATE \"C\" > :afterApp)");
+
+    private final Comparator<HitOutputDto> comparator;
+    private final String orderSql;
+    private final String afterSql;
+}
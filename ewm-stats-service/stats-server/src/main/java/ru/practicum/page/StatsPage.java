@@ -0,0 +1,52 @@
+package ru.practicum.page;
+
+import lombok.Value;
+import ru.practicum.HitOutputDto;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Страница статистики: строки app (если задан) в порядке order после курсора after, пропуская offset, не больше
+ * limit. Выборка берёт на строку больше limit — лишняя говорит, что есть следующая страница.
+ */
+@Value
+public class StatsPage {
+    String app;
+    StatsOrder order;
+    int limit;
+    int offset;
+    HitOutputDto after;
+
+    public boolean accepts(HitOutputDto hitStat) {
+        return (app == null || app.equals(hitStat.getApp()))
+                && (after == null || order.getComparator().compare(hitStat, after) > 0);
+    }
+
+    /**
+     * Столько строк от начала нужно каждому шарду, чтобы из слитых ответов собрать эту страницу вместе с лишней
+     * строкой: удалённый шард обрезает ответ ровно до limit, и без неё следующая страница, целиком лежащая на одном
+     * шарде, осталась бы незамеченной.
+     */
+    public StatsPage forShard() {
+        return new StatsPage(app, order, (int) Math.min((long) offset + limit + 1, Integer.MAX_VALUE - 1), 0, after);
+    }
+
+    public PageCollector collector() {
+        return new PageCollector(this);
+    }
+
+    public List<HitOutputDto> select(Collection<HitOutputDto> hitStats) {
+        PageCollector collector = collector();
+        hitStats.forEach(collector);
+        return collector.rows();
+    }
+
+    public List<HitOutputDto> rows(List<HitOutputDto> fetched) {
+        return fetched.size() > limit ? fetched.subList(0, limit) : fetched;
+    }
+
+    public String nextCursor(List<HitOutputDto> fetched) {
+        return fetched.size() > limit ? StatsCursor.encode(order, fetched.get(limit - 1)) : null;
+    }
+}
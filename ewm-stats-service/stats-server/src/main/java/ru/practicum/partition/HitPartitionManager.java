@@ -0,0 +1,188 @@
+package ru.practicum.partition;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.model.Hit;
+import ru.practicum.model.StorageLayout;
+
+import javax.annotation.PostConstruct;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Секции таблицы просмотров по created: заранее создаёт будущие, досоздаёт секции под пришедшие
+ * просмотры и удаляет (или отсоединяет для архивации) секции старше срока хранения. Несекционированную таблицу
+ * hits, оставшуюся от прежней схемы, при запуске переносит в секционированную.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.partition.enabled", havingValue = "true", matchIfMissing = true)
+public class HitPartitionManager {
+    private static final String FIND_PARTITIONS = "SELECT c.relname FROM pg_inherits i " +
+            "JOIN pg_class c ON c.oid = i.inhrelid " +
+            "JOIN pg_class p ON p.oid = i.inhparent " +
+            "WHERE p.relname = ?";
+    private static final String LEGACY_TABLE = "hits_legacy";
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transaction;
+    private final TransactionTemplate ddlTransaction;
+    private final String table;
+    private final PartitionInterval interval;
+    private final int precreate;
+    private final int retention;
+    private final boolean detachExpired;
+    private final Set<LocalDate> existing = ConcurrentHashMap.newKeySet();
+
+    public HitPartitionManager(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                               @Value("${stats.storage.layout:PLAIN}") StorageLayout layout,
+                               @Value("${stats.partition.interval:DAY}") PartitionInterval interval,
+                               @Value("${stats.partition.precreate:7}") int precreate,
+                               @Value("${stats.partition.retention:0}") int retention,
+                               @Value("${stats.partition.expired-action:DROP}") String expiredAction) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.ddlTransaction = new TransactionTemplate(transactionManager);
+        this.ddlTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.table = layout.getTable();
+        this.interval = interval;
+        this.precreate = precreate;
+        this.retention = retention;
+        this.detachExpired = "DETACH".equalsIgnoreCase(expiredAction);
+    }
+
+    /**
+     * Прежняя таблица переименовывается в hits_legacy и пересоздаётся секционированной в одной транзакции, затем
+     * под её строки создаются секции, и строки переносятся с прежними hit_id. Шаги можно повторить: если запуск
+     * оборвался после переименования, следующий продолжит с hits_legacy.
+     */
+    @PostConstruct
+    public void migrateLegacyTable() {
+        if (!StorageLayout.PLAIN.getTable().equals(table)) {
+            return;
+        }
+        String kind = jdbcTemplate.queryForObject("SELECT CAST(c.relkind AS varchar) FROM pg_class c " +
+                "WHERE c.oid = to_regclass(?)", String.class, table);
+        if ("r".equals(kind)) {
+            log.info("Таблица {} не секционирована, она будет перенесена в секционированную.", table);
+            transaction.executeWithoutResult(status -> jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                jdbcTemplate.execute("ALTER TABLE " + table + " RENAME TO " + LEGACY_TABLE);
+                jdbcTemplate.execute("ALTER INDEX IF EXISTS hits_pkey RENAME TO hits_legacy_pkey");
+                jdbcTemplate.execute("ALTER INDEX IF EXISTS hits_created_idx RENAME TO hits_legacy_created_idx");
+                jdbcTemplate.execute("ALTER INDEX IF EXISTS hits_uri_created_idx " +
+                        "RENAME TO hits_legacy_uri_created_idx");
+                jdbcTemplate.execute("ALTER SEQUENCE IF EXISTS hits_hit_id_seq RENAME TO hits_legacy_hit_id_seq");
+                ScriptUtils.executeSqlScript(connection, new ClassPathResource("schema-postgresql.sql"));
+                return null;
+            }));
+        }
+        if (jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, LEGACY_TABLE)) {
+            existing.addAll(findPartitions());
+            jdbcTemplate.queryForList("SELECT DISTINCT CAST(created AS date) FROM " + LEGACY_TABLE, Date.class)
+                    .forEach(day -> ensure(interval.floor(day.toLocalDate())));
+            Integer moved = transaction.execute(status -> {
+                int rows = jdbcTemplate.update("INSERT INTO " + table + " (hit_id, app, uri, ip, created) " +
+                        "OVERRIDING SYSTEM VALUE SELECT hit_id, app, uri, ip, created FROM " + LEGACY_TABLE);
+                jdbcTemplate.queryForObject("SELECT setval(pg_get_serial_sequence(?, 'hit_id'), " +
+                        "GREATEST((SELECT MAX(hit_id) FROM " + table + "), 1))", Long.class, table);
+                jdbcTemplate.execute("DROP TABLE " + LEGACY_TABLE);
+                return rows;
+            });
+            log.info("В секционированную таблицу {} перенесено {} просмотров.", table, moved);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${stats.partition.cron:0 5 0 * * *}")
+    public void maintain() {
+        existing.clear();
+        existing.addAll(findPartitions());
+        LocalDate current = interval.floor(LocalDate.now());
+        for (int i = 0; i <= precreate; i++) {
+            ensure(interval.plus(current, i));
+        }
+        if (retention > 0) {
+            LocalDate oldestKept = interval.plus(current, -retention);
+            for (LocalDate start : new TreeSet<>(existing)) {
+                if (start.isBefore(oldestKept)) {
+                    expire(start);
+                }
+            }
+        }
+    }
+
+    public void ensurePartitions(List<Hit> hits) {
+        Set<LocalDate> starts = new TreeSet<>();
+        for (Hit hit : hits) {
+            starts.add(interval.floor(hit.getTimestamp().toLocalDate()));
+        }
+        starts.forEach(this::ensure);
+    }
+
+    private void ensure(LocalDate start) {
+        if (existing.contains(start)) {
+            return;
+        }
+        String partition = partitionName(start);
+        try {
+            ddlTransaction.executeWithoutResult(status -> jdbcTemplate.execute(
+                    "CREATE TABLE IF NOT EXISTS " + partition + " PARTITION OF " + table +
+                            " FOR VALUES FROM ('" + start + "') TO ('" + interval.plus(start, 1) + "')"));
+            log.info("Создана секция {}.", partition);
+        } catch (DataAccessException e) {
+            if (!findPartitions().contains(start)) {
+                throw e;
+            }
+        }
+        existing.add(start);
+    }
+
+    private void expire(LocalDate start) {
+        String partition = partitionName(start);
+        if (detachExpired) {
+            jdbcTemplate.execute("ALTER TABLE " + table + " DETACH PARTITION " + partition);
+            log.info("Секция {} отсоединена для архивации.", partition);
+        } else {
+            jdbcTemplate.execute("DROP TABLE " + partition);
+            log.info("Секция {} удалена по сроку хранения.", partition);
+        }
+        existing.remove(start);
+    }
+
+    private Set<LocalDate> findPartitions() {
+        Set<LocalDate> partitions = new TreeSet<>();
+        String prefix = table + "_p";
+        for (String name : jdbcTemplate.queryForList(FIND_PARTITIONS, String.class, table)) {
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+            try {
+                partitions.add(interval.parseSuffix(name.substring(prefix.length())));
+            } catch (DateTimeParseException e) {
+                log.warn("Секция {} не соответствует интервалу {}.", name, interval);
+            }
+        }
+        return partitions;
+    }
+
+    private String partitionName(LocalDate start) {
+        return table + "_p" + interval.suffix(start);
+    }
+}
@@ -0,0 +1,35 @@
+package ru.practicum.partition;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+
+public enum PartitionInterval {
+    DAY(ChronoUnit.DAYS, "yyyyMMdd"),
+    MONTH(ChronoUnit.MONTHS, "yyyyMM");
+
+    private final ChronoUnit unit;
+    private final DateTimeFormatter suffixFormat;
+
+    PartitionInterval(ChronoUnit unit, String suffixPattern) {
+        this.unit = unit;
+        this.suffixFormat = DateTimeFormatter.ofPattern(suffixPattern);
+    }
+
+    public LocalDate floor(LocalDate date) {
+        return this == MONTH ? date.withDayOfMonth(1) : date;
+    }
+
+    public LocalDate plus(LocalDate start, long count) {
+        return start.plus(count, unit);
+    }
+
+    public String suffix(LocalDate start) {
+        return start.format(suffixFormat);
+    }
+
+    public LocalDate parseSuffix(String suffix) {
+        return this == MONTH ? YearMonth.parse(suffix, suffixFormat).atDay(1) : LocalDate.parse(suffix, suffixFormat);
+    }
+}
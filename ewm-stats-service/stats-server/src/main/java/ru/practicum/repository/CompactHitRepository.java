@@ -0,0 +1,54 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.HitOutputDto;
+import ru.practicum.dictionary.HitDictionary;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+@Repository
+@RequiredArgsConstructor
+public class CompactHitRepository {
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final HitDictionary hitDictionary;
+
+    public List<HitOutputDto> findHits(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique) {
+        List<HitOutputDto> hitStats = new ArrayList<>();
+        forEachHit(start, end, uris, unique, hitStats::add);
+        return hitStats;
+    }
+
+    public void forEachHit(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                           Consumer<HitOutputDto> action) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("start", Timestamp.valueOf(start))
+                .addValue("end", Timestamp.valueOf(end));
+        String uriFilter = "";
+        if (uris != null) {
+            List<Integer> uriIds = hitDictionary.knownUriIds(uris);
+            if (uriIds.isEmpty()) {
+                return;
+            }
+            parameters.addValue("uriIds", uriIds);
+            uriFilter = " AND uri_id IN (:uriIds)";
+        }
+        String count = unique ? "count(DISTINCT ip)" : "count(*)";
+        jdbcTemplate.query("SELECT app_id, uri_id, " + count + " AS hits " +
+                "FROM hits_compact " +
+                "WHERE created BETWEEN :start AND :end" + uriFilter + " " +
+                "GROUP BY app_id, uri_id " +
+                "ORDER BY hits DESC", parameters, rs -> {
+            action.accept(new HitOutputDto(
+                    hitDictionary.app(rs.getInt("app_id")),
+                    hitDictionary.uri(rs.getInt("uri_id")),
+                    rs.getLong("hits")));
+        });
+    }
+}
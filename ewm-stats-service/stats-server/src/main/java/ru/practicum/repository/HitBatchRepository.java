@@ -0,0 +1,73 @@
+package ru.practicum.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.dictionary.HitDictionary;
+import ru.practicum.model.Hit;
+import ru.practicum.model.StorageLayout;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+@Repository
+public class HitBatchRepository {
+    private static final String INSERT_HITS = "INSERT INTO hits (app, uri, ip, created) VALUES ";
+    private static final String INSERT_COMPACT_HITS = "INSERT INTO hits_compact (app_id, uri_id, ip, created) VALUES ";
+    private static final String HIT_VALUES = "(?, ?, ?, ?)";
+    private static final String COMPACT_HIT_VALUES = "(?, ?, ?::inet, ?)";
+    private static final int MAX_ROWS_PER_INSERT = 1000;
+    private final JdbcTemplate jdbcTemplate;
+    private final HitDictionary hitDictionary;
+    private final StorageLayout layout;
+
+    public HitBatchRepository(JdbcTemplate jdbcTemplate, HitDictionary hitDictionary,
+                              @Value("${stats.storage.layout:PLAIN}") StorageLayout layout) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.hitDictionary = hitDictionary;
+        this.layout = layout;
+    }
+
+    public void saveAll(List<Hit> hits) {
+        for (int from = 0; from < hits.size(); from += MAX_ROWS_PER_INSERT) {
+            List<Hit> rows = hits.subList(from, Math.min(from + MAX_ROWS_PER_INSERT, hits.size()));
+            if (layout == StorageLayout.DICTIONARY) {
+                jdbcTemplate.update(insertSql(INSERT_COMPACT_HITS, COMPACT_HIT_VALUES, rows.size()),
+                        ps -> setCompactValues(ps, rows));
+            } else {
+                jdbcTemplate.update(insertSql(INSERT_HITS, HIT_VALUES, rows.size()), ps -> setValues(ps, rows));
+            }
+        }
+    }
+
+    private static String insertSql(String insert, String values, int rows) {
+        StringBuilder sql = new StringBuilder(insert.length() + rows * (values.length() + 2));
+        sql.append(insert).append(values);
+        for (int i = 1; i < rows; i++) {
+            sql.append(", ").append(values);
+        }
+        return sql.toString();
+    }
+
+    private static void setValues(PreparedStatement ps, List<Hit> rows) throws SQLException {
+        int index = 1;
+        for (Hit hit : rows) {
+            ps.setString(index++, hit.getApp());
+            ps.setString(index++, hit.getUri());
+            ps.setString(index++, hit.getIp());
+            ps.setTimestamp(index++, Timestamp.valueOf(hit.getTimestamp()));
+        }
+    }
+
+    private void setCompactValues(PreparedStatement ps, List<Hit> rows) throws SQLException {
+        int index = 1;
+        for (Hit hit : rows) {
+            ps.setShort(index++, (short) hitDictionary.appId(hit.getApp()));
+            ps.setInt(index++, hitDictionary.uriId(hit.getUri()));
+            ps.setString(index++, hit.getIp());
+            ps.setTimestamp(index++, Timestamp.valueOf(hit.getTimestamp()));
+        }
+    }
+}
@@ -8,6 +8,7 @@ import ru.practicum.model.Hit;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface HitRepository extends JpaRepository<Hit, Long> {
     @Query("SELECT new ru.practicum.HitOutputDto(h.app, h.uri, count(DISTINCT h.ip)) " +
@@ -51,4 +52,22 @@ public interface HitRepository extends JpaRepository<Hit, Long> {
     List<HitOutputDto> findAllByTimestamp(
             @Param("start") LocalDateTime start,
             @Param("end") LocalDateTime end);
-}
\ No newline at end of file
+
+    @Query("SELECT new ru.practicum.HitOutputDto(h.app, h.uri, count(DISTINCT h.ip)) " +
+            "FROM Hit h " +
+            "WHERE h.timestamp BETWEEN :start AND :end " +
+            "GROUP BY h.uri, h.app  " +
+            "ORDER BY count(h.ip) DESC")
+    Stream<HitOutputDto> streamAllByTimestampAndUniqueIp(
+            @Param("start") LocalDateTime start,
+            @Param("end") LocalDateTime end);
+
+    @Query("SELECT new ru.practicum.HitOutputDto(h.app, h.uri, count(h.ip)) " +
+            "FROM Hit h " +
+            "WHERE h.timestamp BETWEEN :start AND :end " +
+            "GROUP BY h.uri, h.app " +
+            "ORDER BY count(h.ip) DESC")
+    Stream<HitOutputDto> streamAllByTimestamp(
+            @Param("start") LocalDateTime start,
+            @Param("end") LocalDateTime end);
+}
@@ -0,0 +1,36 @@
+package ru.practicum.repository;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import ru.practicum.page.StatsPage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Страница поверх агрегирующего запроса со столбцами app, uri, hits: фильтр по app и курсор накладываются
+ * на его группы, а ORDER BY с LIMIT дают базе отобрать только нужные, не отдавая остальные.
+ */
+final class PageSql {
+    private PageSql() {
+    }
+
+    static String wrap(String sql, StatsPage page, MapSqlParameterSource parameters) {
+        List<String> conditions = new ArrayList<>();
+        if (page.getApp() != null) {
+            conditions.add("p.app = :pageApp");
+            parameters.addValue("pageApp", page.getApp());
+        }
+        if (page.getAfter() != null) {
+            conditions.add(page.getOrder().getAfterSql());
+            parameters.addValue("afterHits", page.getAfter().getHits())
+                    .addValue("afterApp", page.getAfter().getApp())
+                    .addValue("afterUri", page.getAfter().getUri());
+        }
+        parameters.addValue("pageLimit", page.getLimit() + 1)
+                .addValue("pageOffset", page.getOffset());
+        return "SELECT p.app, p.uri, p.hits FROM (" + sql + ") p" +
+                (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions)) +
+                " ORDER BY " + page.getOrder().getOrderSql() +
+                " LIMIT :pageLimit OFFSET :pageOffset";
+    }
+}
@@ -0,0 +1,106 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.HitOutputDto;
+import ru.practicum.model.Hit;
+import ru.practicum.model.StorageLayout;
+import ru.practicum.page.StatsPage;
+import ru.practicum.rollup.RollupLevel;
+import ru.practicum.rollup.RollupSlice;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+@Repository
+@RequiredArgsConstructor
+public class RollupRepository {
+    private static final Comparator<RollupKey> KEY_ORDER = Comparator.comparing(RollupKey::getUri)
+            .thenComparing(RollupKey::getBucket)
+            .thenComparing(RollupKey::getApp);
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    @Value("${stats.storage.layout:PLAIN}")
+    private StorageLayout layout;
+
+    public void increment(List<Hit> hits) {
+        for (RollupLevel level : RollupLevel.values()) {
+            Map<RollupKey, Long> counts = new TreeMap<>(KEY_ORDER);
+            for (Hit hit : hits) {
+                counts.merge(new RollupKey(hit.getApp(), hit.getUri(), level.floor(hit.getTimestamp())), 1L, Long::sum);
+            }
+            List<Map.Entry<RollupKey, Long>> rows = new ArrayList<>(counts.entrySet());
+            jdbcTemplate.getJdbcTemplate().batchUpdate(upsertSql(level), rows, rows.size(), (ps, row) -> {
+                ps.setString(1, row.getKey().getApp());
+                ps.setString(2, row.getKey().getUri());
+                ps.setTimestamp(3, Timestamp.valueOf(row.getKey().getBucket()));
+                ps.setLong(4, row.getValue());
+            });
+        }
+    }
+
+    public List<HitOutputDto> findHits(List<RollupSlice> slices, List<String> uris) {
+        List<HitOutputDto> hitStats = new ArrayList<>();
+        forEachHit(slices, uris, hitStats::add);
+        return hitStats;
+    }
+
+    public void forEachHit(List<RollupSlice> slices, List<String> uris, Consumer<HitOutputDto> action) {
+        forEachHit(slices, uris, null, action);
+    }
+
+    public void forEachHit(List<RollupSlice> slices, List<String> uris, StatsPage page,
+                           Consumer<HitOutputDto> action) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        List<String> selects = new ArrayList<>();
+        for (int i = 0; i < slices.size(); i++) {
+            RollupSlice slice = slices.get(i);
+            parameters.addValue("from" + i, Timestamp.valueOf(slice.getFrom()));
+            parameters.addValue("to" + i, Timestamp.valueOf(slice.getTo()));
+            selects.add(sliceSql(slice, i, uris != null));
+        }
+        if (uris != null) {
+            parameters.addValue("uris", new UriArray(uris), UriArray.SQL_TYPE);
+        }
+        String sql = "SELECT s.app, s.uri, SUM(s.hits) AS hits " +
+                "FROM (" + String.join(" UNION ALL ", selects) + ") s " +
+                "GROUP BY s.app, s.uri";
+        sql = page != null ? PageSql.wrap(sql, page, parameters) : sql + " ORDER BY hits DESC";
+        jdbcTemplate.query(sql, parameters, rs -> {
+            action.accept(new HitOutputDto(
+                    rs.getString("app"),
+                    rs.getString("uri"),
+                    rs.getLong("hits")));
+        });
+    }
+
+    private String sliceSql(RollupSlice slice, int index, boolean filterUris) {
+        if (slice.isRaw()) {
+            String toOperator = slice.isToInclusive() ? " <= " : " < ";
+            return layout.groupedRawSql(null, "count(*)",
+                    "created >= :from" + index + " AND created" + toOperator + ":to" + index, filterUris);
+        }
+        return "SELECT app, uri, hits FROM " + slice.getLevel().getTable() + " " +
+                "WHERE bucket >= :from" + index + " AND bucket < :to" + index + (filterUris ? UriArray.FILTER : "");
+    }
+
+    private static String upsertSql(RollupLevel level) {
+        return "INSERT INTO " + level.getTable() + " (app, uri, bucket, hits) VALUES (?, ?, ?, ?) " +
+                "ON CONFLICT (uri, bucket, app) DO UPDATE SET hits = " + level.getTable() + ".hits + EXCLUDED.hits";
+    }
+
+    @lombok.Value
+    private static class RollupKey {
+        String app;
+        String uri;
+        LocalDateTime bucket;
+    }
+}
@@ -0,0 +1,52 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.sampling.DroppedHits;
+import ru.practicum.sampling.SampledKey;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@Repository
+@RequiredArgsConstructor
+public class SamplingRepository {
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public void add(List<Map.Entry<SampledKey, DroppedHits>> rows) {
+        jdbcTemplate.getJdbcTemplate().batchUpdate("INSERT INTO hits_sampled (app, uri, bucket, dropped, rate) " +
+                "VALUES (?, ?, ?, ?, ?) " +
+                "ON CONFLICT (uri, bucket, app) DO UPDATE SET dropped = hits_sampled.dropped + EXCLUDED.dropped, " +
+                "rate = GREATEST(hits_sampled.rate, EXCLUDED.rate)", rows, rows.size(), (ps, row) -> {
+            ps.setString(1, row.getKey().getApp());
+            ps.setString(2, row.getKey().getUri());
+            ps.setTimestamp(3, Timestamp.valueOf(row.getKey().getBucket()));
+            ps.setLong(4, row.getValue().getCount());
+            ps.setInt(5, row.getValue().getRate());
+        });
+    }
+
+    public void forEachDropped(LocalDateTime start, LocalDateTime end, List<String> uris,
+                               RowCallbackHandler handler) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("start", Timestamp.valueOf(start))
+                .addValue("end", Timestamp.valueOf(end))
+                .addValue("uris", uris);
+        jdbcTemplate.query("SELECT app, uri, SUM(dropped) AS dropped FROM hits_sampled " +
+                "WHERE bucket >= :start AND bucket < :end" + (uris != null ? " AND uri IN (:uris)" : "") + " " +
+                "GROUP BY app, uri", parameters, handler);
+    }
+
+    public List<LocalDateTime> findSampledBuckets() {
+        return jdbcTemplate.getJdbcTemplate().queryForList("SELECT DISTINCT bucket FROM hits_sampled",
+                Timestamp.class).stream()
+                .map(Timestamp::toLocalDateTime)
+                .collect(Collectors.toList());
+    }
+}
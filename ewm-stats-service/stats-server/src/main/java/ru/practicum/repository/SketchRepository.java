@@ -0,0 +1,74 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.StorageLayout;
+import ru.practicum.rollup.RollupSlice;
+import ru.practicum.sketch.HyperLogLog;
+import ru.practicum.sketch.SketchKey;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+@Repository
+@RequiredArgsConstructor
+public class SketchRepository {
+    private static final String KEY_FILTER = "WHERE uri = :uri AND level = :level AND bucket = :bucket AND app = :app";
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    @Value("${stats.storage.layout:PLAIN}")
+    private StorageLayout layout;
+
+    public void merge(SketchKey key, HyperLogLog delta) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("app", key.getApp())
+                .addValue("uri", key.getUri())
+                .addValue("level", key.getLevel().name())
+                .addValue("bucket", Timestamp.valueOf(key.getBucket()));
+        while (true) {
+            List<byte[]> stored = jdbcTemplate.query("SELECT registers FROM hit_ip_sketches " + KEY_FILTER +
+                    " FOR UPDATE", parameters, (rs, rowNum) -> rs.getBytes("registers"));
+            if (!stored.isEmpty()) {
+                HyperLogLog merged = HyperLogLog.fromBytes(stored.get(0));
+                merged.merge(delta);
+                parameters.addValue("registers", merged.toBytes());
+                jdbcTemplate.update("UPDATE hit_ip_sketches SET registers = :registers " + KEY_FILTER, parameters);
+                return;
+            }
+            parameters.addValue("registers", delta.toBytes());
+            int inserted = jdbcTemplate.update("INSERT INTO hit_ip_sketches (app, uri, level, bucket, registers) " +
+                    "VALUES (:app, :uri, :level, :bucket, :registers) ON CONFLICT DO NOTHING", parameters);
+            if (inserted > 0) {
+                return;
+            }
+        }
+    }
+
+    public void forEachSketch(RollupSlice slice, List<String> uris, RowCallbackHandler handler) {
+        MapSqlParameterSource parameters = sliceParameters(slice, uris)
+                .addValue("level", slice.getLevel().name());
+        jdbcTemplate.query("SELECT app, uri, registers FROM hit_ip_sketches " +
+                "WHERE level = :level AND bucket >= :from AND bucket < :to" + uriFilter(uris), parameters, handler);
+    }
+
+    public void forEachDistinctIp(RollupSlice slice, List<String> uris, RowCallbackHandler handler) {
+        String toOperator = slice.isToInclusive() ? " <= " : " < ";
+        jdbcTemplate.query("SELECT DISTINCT app, uri, ip FROM " + layout.getRawSource() + " " +
+                "WHERE created >= :from AND created" + toOperator + ":to" + uriFilter(uris),
+                sliceParameters(slice, uris), handler);
+    }
+
+    private static MapSqlParameterSource sliceParameters(RollupSlice slice, List<String> uris) {
+        return new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(slice.getFrom()))
+                .addValue("to", Timestamp.valueOf(slice.getTo()))
+                .addValue("uris", uris);
+    }
+
+    private static String uriFilter(List<String> uris) {
+        return uris != null ? " AND uri IN (:uris)" : "";
+    }
+}
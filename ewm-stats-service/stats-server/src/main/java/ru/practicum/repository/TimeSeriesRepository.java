@@ -0,0 +1,66 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.StorageLayout;
+import ru.practicum.rollup.RollupLevel;
+import ru.practicum.rollup.RollupSlice;
+import ru.practicum.store.BucketConsumer;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+@Repository
+@RequiredArgsConstructor
+public class TimeSeriesRepository {
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    @Value("${stats.storage.layout:PLAIN}")
+    private StorageLayout layout;
+
+    /**
+     * Один сгруппированный проход по кускам плана: сырые куски и корзины агрегатов мельче interval приводятся
+     * к началу корзины interval и суммируются. Для уникальных ip передаётся один сырой кусок.
+     */
+    public void forEachBucket(List<RollupSlice> slices, List<String> uris, RollupLevel interval, boolean unique,
+                              BucketConsumer action) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        List<String> selects = new ArrayList<>();
+        for (int i = 0; i < slices.size(); i++) {
+            RollupSlice slice = slices.get(i);
+            parameters.addValue("from" + i, Timestamp.valueOf(slice.getFrom()));
+            parameters.addValue("to" + i, Timestamp.valueOf(slice.getTo()));
+            selects.add(sliceSql(slice, i, uris != null, interval, unique));
+        }
+        if (uris != null) {
+            parameters.addValue("uris", new UriArray(uris), UriArray.SQL_TYPE);
+        }
+        String sql = "SELECT s.app, s.uri, s.bucket, SUM(s.hits) AS hits " +
+                "FROM (" + String.join(" UNION ALL ", selects) + ") s " +
+                "GROUP BY s.app, s.uri, s.bucket";
+        jdbcTemplate.query(sql, parameters, rs -> {
+            action.accept(
+                    rs.getString("app"),
+                    rs.getString("uri"),
+                    rs.getTimestamp("bucket").toLocalDateTime(),
+                    rs.getLong("hits"));
+        });
+    }
+
+    private String sliceSql(RollupSlice slice, int index, boolean filterUris, RollupLevel interval, boolean unique) {
+        String uriFilter = filterUris ? UriArray.FILTER : "";
+        String unit = "'" + interval.name().toLowerCase() + "'";
+        if (slice.isRaw()) {
+            String toOperator = slice.isToInclusive() ? " <= " : " < ";
+            String bucket = "date_trunc(" + unit + ", created)";
+            return layout.groupedRawSql(bucket, unique ? "count(DISTINCT ip)" : "count(*)",
+                    "created >= :from" + index + " AND created" + toOperator + ":to" + index, filterUris);
+        }
+        return "SELECT app, uri, date_trunc(" + unit + ", bucket) AS bucket, hits " +
+                "FROM " + slice.getLevel().getTable() + " " +
+                "WHERE bucket >= :from" + index + " AND bucket < :to" + index + uriFilter;
+    }
+}
@@ -0,0 +1,153 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.HitOutputDto;
+import ru.practicum.model.Hit;
+import ru.practicum.model.StorageLayout;
+import ru.practicum.page.StatsPage;
+import ru.practicum.rollup.RollupLevel;
+import ru.practicum.rollup.RollupSlice;
+import ru.practicum.store.BucketConsumer;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Точные уникальные ip: множество различных ip по (app, uri, день), пополняемое при записи. Целые дни запроса
+ * читаются из него, края — из сырых просмотров; различные ip ищутся по уже схлопнутым за день строкам.
+ */
+@Repository
+@RequiredArgsConstructor
+public class UniqueIpRepository {
+    private static final Comparator<DailyIp> KEY_ORDER = Comparator.comparing(DailyIp::getUri)
+            .thenComparing(DailyIp::getBucket)
+            .thenComparing(DailyIp::getApp)
+            .thenComparing(DailyIp::getIp);
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    @Value("${stats.storage.layout:PLAIN}")
+    private StorageLayout layout;
+
+    public void add(List<Hit> hits) {
+        Set<DailyIp> keys = new TreeSet<>(KEY_ORDER);
+        for (Hit hit : hits) {
+            keys.add(new DailyIp(hit.getApp(), hit.getUri(), RollupLevel.DAY.floor(hit.getTimestamp()),
+                    hit.getIp()));
+        }
+        List<DailyIp> rows = new ArrayList<>(keys);
+        jdbcTemplate.getJdbcTemplate().batchUpdate(insertSql(), rows, rows.size(), (ps, row) -> {
+            ps.setString(1, row.getApp());
+            ps.setString(2, row.getUri());
+            ps.setTimestamp(3, Timestamp.valueOf(row.getBucket()));
+            ps.setString(4, row.getIp());
+        });
+    }
+
+    public void forEachHit(List<RollupSlice> slices, List<String> uris, Consumer<HitOutputDto> action) {
+        forEachHit(slices, uris, null, action);
+    }
+
+    public void forEachHit(List<RollupSlice> slices, List<String> uris, StatsPage page,
+                           Consumer<HitOutputDto> action) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        List<String> selects = new ArrayList<>();
+        for (int i = 0; i < slices.size(); i++) {
+            RollupSlice slice = slices.get(i);
+            parameters.addValue("from" + i, Timestamp.valueOf(slice.getFrom()));
+            parameters.addValue("to" + i, Timestamp.valueOf(slice.getTo()));
+            selects.add(sliceSql(slice, i, uris != null));
+        }
+        if (uris != null) {
+            parameters.addValue("uris", new UriArray(uris), UriArray.SQL_TYPE);
+        }
+        String sql = "SELECT d.app, d.uri, count(*) AS hits " +
+                "FROM (SELECT DISTINCT s.app, s.uri, s.ip FROM (" + String.join(" UNION ALL ", selects) + ") s) d " +
+                "GROUP BY d.app, d.uri";
+        sql = page != null ? PageSql.wrap(sql, page, parameters) : sql + " ORDER BY hits DESC";
+        jdbcTemplate.query(sql, parameters, rs -> {
+            action.accept(new HitOutputDto(
+                    rs.getString("app"),
+                    rs.getString("uri"),
+                    rs.getLong("hits")));
+        });
+    }
+
+    /**
+     * Уникальные ip по дням: целые дни плана — размер дневного множества, края и дни до отметки покрытия —
+     * различные ip сырых просмотров за день. Каждый день плана целиком лежит в одном куске, поэтому суммы
+     * по кускам не пересчитывают один ip дважды.
+     */
+    public void forEachDay(List<RollupSlice> slices, List<String> uris, BucketConsumer action) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        List<String> selects = new ArrayList<>();
+        for (int i = 0; i < slices.size(); i++) {
+            RollupSlice slice = slices.get(i);
+            parameters.addValue("from" + i, Timestamp.valueOf(slice.getFrom()));
+            parameters.addValue("to" + i, Timestamp.valueOf(slice.getTo()));
+            selects.add(daySql(slice, i, uris != null));
+        }
+        if (uris != null) {
+            parameters.addValue("uris", new UriArray(uris), UriArray.SQL_TYPE);
+        }
+        String sql = "SELECT s.app, s.uri, s.bucket, SUM(s.hits) AS hits " +
+                "FROM (" + String.join(" UNION ALL ", selects) + ") s " +
+                "GROUP BY s.app, s.uri, s.bucket";
+        jdbcTemplate.query(sql, parameters, rs -> {
+            action.accept(
+                    rs.getString("app"),
+                    rs.getString("uri"),
+                    rs.getTimestamp("bucket").toLocalDateTime(),
+                    rs.getLong("hits"));
+        });
+    }
+
+    private String daySql(RollupSlice slice, int index, boolean filterUris) {
+        String uriFilter = filterUris ? UriArray.FILTER : "";
+        if (slice.isRaw()) {
+            String toOperator = slice.isToInclusive() ? " <= " : " < ";
+            return layout.groupedRawSql("date_trunc('day', created)", "count(DISTINCT ip)",
+                    "created >= :from" + index + " AND created" + toOperator + ":to" + index, filterUris);
+        }
+        return "SELECT app, uri, bucket, count(*) AS hits FROM hit_daily_ips " +
+                "WHERE bucket >= :from" + index + " AND bucket < :to" + index + uriFilter +
+                " GROUP BY app, uri, bucket";
+    }
+
+    private String sliceSql(RollupSlice slice, int index, boolean filterUris) {
+        String uriFilter = filterUris ? UriArray.FILTER : "";
+        if (slice.isRaw()) {
+            String toOperator = slice.isToInclusive() ? " <= " : " < ";
+            return "SELECT app, uri, ip FROM " + layout.getRawSource() + " " +
+                    "WHERE created >= :from" + index + " AND created" + toOperator + ":to" + index + uriFilter;
+        }
+        return "SELECT app, uri, ip FROM hit_daily_ips " +
+                "WHERE bucket >= :from" + index + " AND bucket < :to" + index + uriFilter;
+    }
+
+    /**
+     * В словарной раскладке сырые ip читаются как host(inet), поэтому и в множество они пишутся в том же виде,
+     * иначе один адрес в разной записи посчитался бы дважды.
+     */
+    private String insertSql() {
+        String ip = layout == StorageLayout.DICTIONARY ? "host(CAST(? AS inet))" : "?";
+        return "INSERT INTO hit_daily_ips (app, uri, bucket, ip) VALUES (?, ?, ?, " + ip + ") " +
+                "ON CONFLICT DO NOTHING";
+    }
+
+    @lombok.Value
+    private static class DailyIp {
+        String app;
+        String uri;
+        LocalDateTime bucket;
+        String ip;
+    }
+}
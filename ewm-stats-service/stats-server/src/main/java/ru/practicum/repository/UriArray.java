@@ -0,0 +1,27 @@
+package ru.practicum.repository;
+
+import org.springframework.jdbc.core.support.AbstractSqlTypeValue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * Список uri одним параметром-массивом. В объединении срезов фильтр повторяется в каждом срезе, и развёрнутый
+ * в IN список занял бы по параметру на uri в каждом из них, упираясь в предел 32767 параметров запроса.
+ */
+final class UriArray extends AbstractSqlTypeValue {
+    static final String FILTER = " AND uri = ANY(:uris)";
+    static final int SQL_TYPE = Types.ARRAY;
+    private final List<String> uris;
+
+    UriArray(List<String> uris) {
+        this.uris = uris;
+    }
+
+    @Override
+    protected Object createTypeValue(Connection connection, int sqlType, String typeName) throws SQLException {
+        return connection.createArrayOf("varchar", uris.toArray());
+    }
+}
@@ -0,0 +1,102 @@
+package ru.practicum.rollup;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.practicum.model.StorageLayout;
+import ru.practicum.partition.HitPartitionManager;
+
+import javax.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * С какого момента полны агрегаты, дневные множества ip и скетчи уникальных ip. Они пополняются только новыми просмотрами, и строки,
+ * записанные до их включения, в них не попали, поэтому до отметки статистика читается из сырых просмотров.
+ * Отметка ставится при первом запуске с включённым агрегатом на начало следующих суток, а на пустой базе — на
+ * начало времён. Запуск с выключенным агрегатом её стирает: то, что пишется без него, после повторного включения
+ * тоже читается из сырых. Если агрегат заведомо полон, отметку в hit_coverage можно сдвинуть назад вручную.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.store", havingValue = "RELATIONAL", matchIfMissing = true)
+public class RollupCoverage {
+    public static final String COUNTS = "rollup";
+    public static final String DAILY_IPS = "daily-ips";
+    public static final String SKETCHES = "sketch";
+    private static final LocalDateTime EMPTY_SINCE = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectProvider<HitPartitionManager> hitPartitionManager;
+    private final StorageLayout layout;
+    private final boolean rollupEnabled;
+    private final boolean uniqueIndexEnabled;
+    private final boolean sketchEnabled;
+    private LocalDateTime countsSince;
+    private LocalDateTime dailyIpsSince;
+    private LocalDateTime sketchesSince;
+
+    public RollupCoverage(JdbcTemplate jdbcTemplate, ObjectProvider<HitPartitionManager> hitPartitionManager,
+                          @Value("${stats.storage.layout:PLAIN}") StorageLayout layout,
+                          @Value("${stats.rollup.enabled:true}") boolean rollupEnabled,
+                          @Value("${stats.unique-index.enabled:true}") boolean uniqueIndexEnabled,
+                          @Value("${stats.sketch.enabled:true}") boolean sketchEnabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.hitPartitionManager = hitPartitionManager;
+        this.layout = layout;
+        this.rollupEnabled = rollupEnabled;
+        this.uniqueIndexEnabled = uniqueIndexEnabled;
+        this.sketchEnabled = sketchEnabled;
+    }
+
+    /**
+     * Перенос прежней несекционированной таблицы должен закончиться раньше, иначе её строки не будут видны.
+     */
+    @PostConstruct
+    public void load() {
+        hitPartitionManager.getIfAvailable();
+        countsSince = track(COUNTS, rollupEnabled);
+        dailyIpsSince = track(DAILY_IPS, uniqueIndexEnabled);
+        sketchesSince = track(SKETCHES, sketchEnabled);
+    }
+
+    public LocalDateTime countsSince() {
+        return countsSince;
+    }
+
+    public LocalDateTime dailyIpsSince() {
+        return dailyIpsSince;
+    }
+
+    public LocalDateTime sketchesSince() {
+        return sketchesSince;
+    }
+
+    private LocalDateTime track(String name, boolean enabled) {
+        if (!enabled) {
+            jdbcTemplate.update("DELETE FROM hit_coverage WHERE name = ?", name);
+            return null;
+        }
+        List<Timestamp> found = findSince(name);
+        if (found.isEmpty()) {
+            LocalDateTime since = hasHits() ? RollupLevel.DAY.ceil(LocalDateTime.now()) : EMPTY_SINCE;
+            jdbcTemplate.update("INSERT INTO hit_coverage (name, since) VALUES (?, ?) ON CONFLICT (name) DO NOTHING",
+                    name, Timestamp.valueOf(since));
+            found = findSince(name);
+            log.info("Агрегаты {} полны с {}, более ранняя статистика читается из сырых просмотров.", name,
+                    found.get(0));
+        }
+        return found.get(0).toLocalDateTime();
+    }
+
+    private List<Timestamp> findSince(String name) {
+        return jdbcTemplate.queryForList("SELECT since FROM hit_coverage WHERE name = ?", Timestamp.class, name);
+    }
+
+    private boolean hasHits() {
+        return !jdbcTemplate.queryForList("SELECT 1 FROM " + layout.getTable() + " LIMIT 1").isEmpty();
+    }
+}
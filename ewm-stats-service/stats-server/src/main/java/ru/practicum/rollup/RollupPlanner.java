@@ -0,0 +1,71 @@
+package ru.practicum.rollup;
+
+import lombok.experimental.UtilityClass;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Делит диапазон [start, end] на куски: целые корзины самого крупного подходящего уровня
+ * и сырые края, не покрытые целой минутой.
+ */
+@UtilityClass
+public class RollupPlanner {
+
+    public List<RollupSlice> plan(LocalDateTime start, LocalDateTime end, List<RollupLevel> levels) {
+        List<RollupSlice> slices = new ArrayList<>();
+        RollupLevel finest = levels.get(0);
+        LocalDateTime alignedStart = finest.ceil(start);
+        LocalDateTime alignedEnd = finest.floor(end);
+        if (!alignedStart.isBefore(alignedEnd)) {
+            slices.add(RollupSlice.raw(start, end, true));
+            return slices;
+        }
+        if (start.isBefore(alignedStart)) {
+            slices.add(RollupSlice.raw(start, alignedStart, false));
+        }
+        cover(alignedStart, alignedEnd, levels, levels.size() - 1, slices);
+        slices.add(RollupSlice.raw(alignedEnd, end, true));
+        return slices;
+    }
+
+    /**
+     * То же, но агрегаты полны только с coveredFrom: всё, что раньше, читается из сырых просмотров одним куском.
+     */
+    public List<RollupSlice> plan(LocalDateTime start, LocalDateTime end, List<RollupLevel> levels,
+                                  LocalDateTime coveredFrom) {
+        if (!start.isBefore(coveredFrom)) {
+            return plan(start, end, levels);
+        }
+        List<RollupSlice> slices = new ArrayList<>();
+        if (end.isBefore(coveredFrom)) {
+            slices.add(RollupSlice.raw(start, end, true));
+            return slices;
+        }
+        slices.add(RollupSlice.raw(start, coveredFrom, false));
+        slices.addAll(plan(coveredFrom, end, levels));
+        return slices;
+    }
+
+    private void cover(LocalDateTime from, LocalDateTime to, List<RollupLevel> levels, int index,
+                       List<RollupSlice> slices) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        RollupLevel level = levels.get(index);
+        if (index == 0) {
+            slices.add(RollupSlice.buckets(level, from, to));
+            return;
+        }
+        LocalDateTime alignedFrom = level.ceil(from);
+        LocalDateTime alignedTo = level.floor(to);
+        if (!alignedFrom.isBefore(alignedTo)) {
+            cover(from, to, levels, index - 1, slices);
+            return;
+        }
+        cover(from, alignedFrom, levels, index - 1, slices);
+        slices.add(RollupSlice.buckets(level, alignedFrom, alignedTo));
+        cover(alignedTo, to, levels, index - 1, slices);
+    }
+}
@@ -0,0 +1,25 @@
+package ru.practicum.rollup;
+
+import lombok.Value;
+
+import java.time.LocalDateTime;
+
+@Value
+public class RollupSlice {
+    RollupLevel level;
+    LocalDateTime from;
+    LocalDateTime to;
+    boolean toInclusive;
+
+    public static RollupSlice raw(LocalDateTime from, LocalDateTime to, boolean toInclusive) {
+        return new RollupSlice(null, from, to, toInclusive);
+    }
+
+    public static RollupSlice buckets(RollupLevel level, LocalDateTime from, LocalDateTime to) {
+        return new RollupSlice(level, from, to, false);
+    }
+
+    public boolean isRaw() {
+        return level == null;
+    }
+}
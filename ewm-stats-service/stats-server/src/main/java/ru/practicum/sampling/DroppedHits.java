@@ -0,0 +1,30 @@
+package ru.practicum.sampling;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Просмотры (app, uri) за минуту, отброшенные выборкой, и наибольший знаменатель выборки за эту минуту.
+ */
+public class DroppedHits {
+    private final LongAdder count = new LongAdder();
+    private final LongAccumulator rate = new LongAccumulator(Math::max, 1);
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public int getRate() {
+        return (int) rate.get();
+    }
+
+    void add(int sampleRate) {
+        count.increment();
+        rate.accumulate(sampleRate);
+    }
+
+    void merge(DroppedHits other) {
+        count.add(other.getCount());
+        rate.accumulate(other.getRate());
+    }
+}
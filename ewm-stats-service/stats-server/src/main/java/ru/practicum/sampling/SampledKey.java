@@ -0,0 +1,12 @@
+package ru.practicum.sampling;
+
+import lombok.Value;
+
+import java.time.LocalDateTime;
+
+@Value
+public class SampledKey {
+    String app;
+    String uri;
+    LocalDateTime bucket;
+}
@@ -0,0 +1,110 @@
+package ru.practicum.sampling;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.model.Hit;
+import ru.practicum.model.HitKey;
+import ru.practicum.repository.SamplingRepository;
+import ru.practicum.rollup.RollupLevel;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Журнал выборки: сколько просмотров (app, uri) за минуту отброшено при перегрузке записи. Числа копятся в памяти
+ * и периодически прибавляются в базе; по ним статистика из хранилища досчитывается до полной, а ответы
+ * за минуты с выборкой помечаются оценочными.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SamplingService {
+    private static final Comparator<SampledKey> KEY_ORDER = Comparator.comparing(SampledKey::getUri)
+            .thenComparing(SampledKey::getBucket)
+            .thenComparing(SampledKey::getApp);
+    private final SamplingRepository samplingRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Map<SampledKey, DroppedHits> pending = new ConcurrentHashMap<>();
+    private final NavigableSet<LocalDateTime> sampledMinutes = new ConcurrentSkipListSet<>();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        sampledMinutes.addAll(samplingRepository.findSampledBuckets());
+    }
+
+    public void record(Hit hit, int rate) {
+        LocalDateTime minute = RollupLevel.MINUTE.floor(hit.getTimestamp());
+        pending.compute(new SampledKey(hit.getApp(), hit.getUri(), minute), (key, dropped) -> {
+            DroppedHits target = dropped != null ? dropped : new DroppedHits();
+            target.add(rate);
+            return target;
+        });
+        sampledMinutes.add(minute);
+    }
+
+    @Scheduled(fixedDelayString = "${stats.sampling.flush-interval-ms:5000}")
+    @PreDestroy
+    public void flush() {
+        List<Map.Entry<SampledKey, DroppedHits>> deltas = new ArrayList<>();
+        for (SampledKey key : pending.keySet()) {
+            DroppedHits delta = pending.remove(key);
+            if (delta != null) {
+                deltas.add(new AbstractMap.SimpleEntry<>(key, delta));
+            }
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        deltas.sort(Map.Entry.comparingByKey(KEY_ORDER));
+        try {
+            transactionTemplate.executeWithoutResult(status -> samplingRepository.add(deltas));
+            log.debug("В журнал выборки добавлено {} минут.", deltas.size());
+        } catch (RuntimeException e) {
+            log.error("Не удалось записать журнал выборки за {} минут: {}", deltas.size(), e.getMessage());
+            deltas.forEach(delta -> pending.merge(delta.getKey(), delta.getValue(), (current, failed) -> {
+                current.merge(failed);
+                return current;
+            }));
+        }
+    }
+
+    /**
+     * Была ли выборка в какой-либо минуте, задетой интервалом.
+     */
+    public boolean isSampled(LocalDateTime start, LocalDateTime end) {
+        return !sampledMinutes.subSet(RollupLevel.MINUTE.floor(start), true, end, true).isEmpty();
+    }
+
+    /**
+     * Отброшенные просмотры по (app, uri) за минуты, начавшиеся в [start, end).
+     */
+    public Map<HitKey, Long> dropped(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        Map<HitKey, Long> dropped = new HashMap<>();
+        samplingRepository.forEachDropped(start, end, uris, rs -> dropped.merge(
+                new HitKey(rs.getString("app"), rs.getString("uri")), rs.getLong("dropped"), Long::sum));
+        Set<String> uriFilter = uris != null ? new HashSet<>(uris) : null;
+        pending.forEach((key, delta) -> {
+            if (!key.getBucket().isBefore(start) && key.getBucket().isBefore(end)
+                    && (uriFilter == null || uriFilter.contains(key.getUri()))) {
+                dropped.merge(new HitKey(key.getApp(), key.getUri()), delta.getCount(), Long::sum);
+            }
+        });
+        return dropped;
+    }
+}
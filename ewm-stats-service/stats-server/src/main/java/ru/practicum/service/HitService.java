@@ -1,55 +1,611 @@
 package ru.practicum.service;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.HitCodec;
 import ru.practicum.HitInputDto;
 import ru.practicum.HitOutputDto;
+import ru.practicum.HitQueryDto;
+import ru.practicum.HitSeriesDto;
+import ru.practicum.TimeSeriesDto;
+import ru.practicum.cache.StatsCache;
+import ru.practicum.exception.NotFoundException;
+import ru.practicum.exception.TooManyRequestsException;
 import ru.practicum.exception.ValidationException;
+import ru.practicum.hotwindow.HotTail;
+import ru.practicum.hotwindow.HotWindow;
+import ru.practicum.ingestion.HitBatchWriter;
+import ru.practicum.ingestion.HitIngestionQueue;
 import ru.practicum.mapper.HitMapper;
 import ru.practicum.model.Hit;
-import ru.practicum.repository.HitRepository;
+import ru.practicum.model.HitKey;
+import ru.practicum.model.TimeRange;
+import ru.practicum.page.StatsCursor;
+import ru.practicum.page.StatsOrder;
+import ru.practicum.page.StatsPage;
+import ru.practicum.rollup.RollupLevel;
+import ru.practicum.sampling.SamplingService;
+import ru.practicum.sketch.HyperLogLog;
+import ru.practicum.sketch.SketchService;
+import ru.practicum.store.HitStore;
+import ru.practicum.topk.TopHits;
+import ru.practicum.topk.TopWindow;
 
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+/**
+ * Сервис сам транзакций не открывает: запись идёт транзакциями {@link HitBatchWriter} по пачке, чтение —
+ * запросами хранилища. Поэтому проверки, разбор запросов и попадания в кэш не занимают соединение из пула.
+ */
 @Service
 @Slf4j
-@Transactional(readOnly = true)
 @RequiredArgsConstructor
 public class HitService {
-    private final HitRepository hitRepository;
+    private static final int NDJSON_CHUNK_SIZE = 1000;
+    private static final Pattern IPV4 = Pattern.compile("((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)\\.){3}" +
+            "(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)");
+    private static final Pattern IPV6_CHARS = Pattern.compile("[0-9a-fA-F:.]{2,45}");
+    private static final String INVALID_IP_MESSAGE = "ip не является адресом IPv4 или IPv6.";
+    private static final String STORE = "store";
+    private static final String SKETCH = "sketch";
+    private static final String HOT_WINDOW = "hot-window";
+    private final ObjectProvider<HitIngestionQueue> hitIngestionQueue;
+    private final HitBatchWriter hitBatchWriter;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final HitStore hitStore;
+    private final SketchService sketchService;
+    private final HotWindow hotWindow;
+    private final TopHits topHits;
+    private final StatsCache statsCache;
+    private final SamplingService samplingService;
+    private final MeterRegistry meterRegistry;
+    @Value("${stats.sketch.enabled:true}")
+    private boolean sketchEnabled;
+    @Value("${stats.timeseries.max-buckets:10000}")
+    private int maxBuckets;
+    @Value("${stats.timeseries.max-points:1000000}")
+    private long maxPoints;
+    @Value("${stats.query.default-limit:100}")
+    private int defaultLimit;
+    @Value("${stats.query.max-limit:10000}")
+    private int maxLimit;
+    @Value("${stats.query.max-uris:10000}")
+    private int maxUris;
 
-    @Transactional
     public void addHit(HitInputDto hitInputDto) {
+        checkIp(hitInputDto);
         Hit hit = HitMapper.toHit(hitInputDto);
-        Hit savedHit = hitRepository.save(hit);
-        log.info("Успешно добавлен {} с id {}.", savedHit.getApp(), savedHit.getId());
+        HitIngestionQueue queue = hitIngestionQueue.getIfAvailable();
+        if (queue != null) {
+            queue.offer(hit);
+            recordReceived("single", 1);
+            log.debug("Просмотр {} поставлен в очередь записи.", hit.getUri());
+            return;
+        }
+        hitBatchWriter.write(List.of(hit));
+        recordReceived("single", 1);
+        log.info("Успешно добавлен {} для {}.", hit.getApp(), hit.getUri());
     }
 
-    public List<HitOutputDto> getHitStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique) {
-        List<HitOutputDto> hitStats;
-        if (start.isAfter(end)) {
-            throw new ValidationException("Дата начала раньше даты окончания.");
+    /**
+     * Проверенные просмотры из датаграмм идут тем же путём, что и одиночный /hit: в очередь записи, если она
+     * включена, иначе сразу в базу. Возвращает, сколько первых просмотров пачки принято: на переполненной
+     * очереди приём останавливается, и остаток пачки не принят.
+     */
+    public int enqueueHits(List<HitInputDto> hitInputDtos) {
+        HitIngestionQueue queue = hitIngestionQueue.getIfAvailable();
+        int count = hitInputDtos.size();
+        if (queue != null) {
+            count = 0;
+            try {
+                for (HitInputDto hitInputDto : hitInputDtos) {
+                    queue.offer(HitMapper.toHit(hitInputDto));
+                    count++;
+                }
+            } catch (TooManyRequestsException e) {
+                log.debug("Принято {} из {} просмотров датаграмм: {}", count, hitInputDtos.size(), e.getMessage());
+            }
+        } else {
+            hitBatchWriter.write(toHits(hitInputDtos));
+        }
+        recordReceived("udp", count);
+        log.debug("Принято {} просмотров из датаграммы.", count);
+        return count;
+    }
+
+    public void addHits(List<HitInputDto> hitInputDtos) {
+        validate(hitInputDtos, 0);
+        hitBatchWriter.write(toHits(hitInputDtos));
+        recordReceived("batch", hitInputDtos.size());
+        log.info("Успешно добавлено {} просмотров.", hitInputDtos.size());
+    }
+
+    /**
+     * Каждый кусок потока записывается своей транзакцией, пока клиент досылает остальные: соединение не держится
+     * всё время загрузки. Кусок, уже записанный до ошибки в следующих, не откатывается, а в ошибке указан номер
+     * записи, с которой поток можно отправить заново.
+     */
+    public void addHits(InputStream ndjson) {
+        int count = readHits(ndjson, (chunk, offset) -> {
+            validate(chunk, offset);
+            hitBatchWriter.write(toHits(chunk));
+        });
+        recordReceived("ndjson", count);
+        log.info("Успешно добавлено {} просмотров из потока.", count);
+    }
+
+    /**
+     * Читает поток NDJSON кусками по NDJSON_CHUNK_SIZE записей, передавая каждый вместе с номером его первой
+     * записи, и возвращает число прочитанных записей.
+     */
+    public int readHits(InputStream ndjson, ObjIntConsumer<List<HitInputDto>> chunkAction) {
+        int count = 0;
+        List<HitInputDto> chunk = new ArrayList<>(NDJSON_CHUNK_SIZE);
+        try (MappingIterator<HitInputDto> iterator = objectMapper.readerFor(HitInputDto.class).readValues(ndjson)) {
+            while (iterator.hasNextValue()) {
+                chunk.add(iterator.nextValue());
+                if (chunk.size() == NDJSON_CHUNK_SIZE) {
+                    chunkAction.accept(chunk, count);
+                    count += chunk.size();
+                    chunk.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new ValidationException("Некорректная запись NDJSON после " + (count + chunk.size()) +
+                    " записей: " + e.getMessage());
+        }
+        if (!chunk.isEmpty()) {
+            chunkAction.accept(chunk, count);
+            count += chunk.size();
+        }
+        return count;
+    }
+
+    /**
+     * Ответ оценочный, если в интервал попали минуты, когда запись шла с выборкой.
+     */
+    public boolean isEstimated(LocalDateTime start, LocalDateTime end) {
+        return samplingService.isSampled(start, end);
+    }
+
+    public boolean isApproximate(boolean unique, boolean approximate) {
+        return unique && approximate && sketchEnabled && hitStore.supportsSketches();
+    }
+
+    public List<HitOutputDto> getHitStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                          boolean approximate) {
+        checkRange(start, end);
+        return statsCache.get(start, end, uris, unique, isApproximate(unique, approximate), () ->
+                findHitStats(start, end, uris, unique, approximate));
+    }
+
+    /**
+     * Разбирает страницу из тела POST /stats/query. Запрос, пересланный узлом кластера, может превышать max-limit:
+     * узел просит у шардов offset + limit строк.
+     */
+    public StatsPage toPage(HitQueryDto query, boolean forwarded) {
+        checkRange(query.getStart(), query.getEnd());
+        if (query.getUris() != null && query.getUris().size() > maxUris) {
+            throw new ValidationException("Не более " + maxUris + " uri в запросе, передано " +
+                    query.getUris().size() + ".");
+        }
+        StatsOrder order;
+        try {
+            order = StatsOrder.valueOf(query.getSort() != null ? query.getSort().toUpperCase() : "HITS");
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Сортировка должна быть hits или uri.");
+        }
+        int limit = query.getLimit() != null ? query.getLimit() : defaultLimit;
+        if (limit > maxLimit && !forwarded) {
+            throw new ValidationException("limit не более " + maxLimit + ".");
+        }
+        if (query.getOffset() != null && query.getCursor() != null) {
+            throw new ValidationException("Укажите offset или cursor, но не оба.");
+        }
+        return new StatsPage(
+                query.getApp() != null && !query.getApp().isBlank() ? query.getApp() : null,
+                order,
+                limit,
+                query.getOffset() != null ? query.getOffset() : 0,
+                query.getCursor() != null ? StatsCursor.decode(query.getCursor(), order) : null);
+    }
+
+    /**
+     * Страница статистики, не больше page.limit + 1 строк. Если ответ целиком даёт хранилище, фильтр по app,
+     * порядок и границы страницы уходят в его запрос. Хвост из памяти, скетчи и досчёт по журналу выборки
+     * собирают статистику целиком, и страница отбирается из неё.
+     */
+    public List<HitOutputDto> getHitStatsPage(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                              boolean unique, boolean approximate, StatsPage page) {
+        if (uris != null && uris.isEmpty()) {
+            return List.of();
         }
-        if (uris != null) {
-            if (unique) {
-                hitStats = hitRepository.findAllByTimestampAndUrisAndUniqueIp(start, end, uris);
-                log.info("Получена статистика по uri и уникальному ip.");
+        if (hotTail(start, end, unique, approximate) != null || isEstimated(start, end)
+                || isApproximate(unique, approximate)) {
+            return page.select(getHitStats(start, end, uris, unique, approximate));
+        }
+        List<HitOutputDto> hitStats = statsCache.get(start, end, uris, unique, false, page, () -> timed(uris, unique,
+                STORE, () -> hitStore.findPage(start, end, uris, unique, page)));
+        log.info("Получена страница статистики из {} строк.", hitStats.size());
+        return hitStats;
+    }
+
+    /**
+     * Ряд держит в памяти по корзине на каждый (app, uri), поэтому число рядов, умноженное на число корзин,
+     * ограничено max-points: со списком uri это проверяется до запроса, без него — по мере появления рядов.
+     */
+    public TimeSeriesDto getTimeSeries(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                       String interval) {
+        checkRange(start, end);
+        RollupLevel level;
+        try {
+            level = RollupLevel.valueOf(interval.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Интервал должен быть minute, hour или day.");
+        }
+        LocalDateTime origin = level.floor(start);
+        long buckets = level.getUnit().between(origin, level.floor(end)) + 1;
+        if (buckets > maxBuckets) {
+            throw new ValidationException("Не более " + maxBuckets + " корзин в ряду, запрошено " + buckets + ".");
+        }
+        if (uris != null && uris.size() * buckets > maxPoints) {
+            throw new ValidationException("Не более " + maxPoints + " точек в ряду: " + uris.size() + " uri на " +
+                    buckets + " корзин.");
+        }
+        int size = (int) buckets;
+        Map<HitKey, HitSeriesDto> series = new HashMap<>();
+        hitStore.forEachBucket(start, end, uris, false, level, (app, uri, bucket, hits) ->
+                seriesFor(series, app, uri, size).getHits()[bucketIndex(level, origin, bucket)] += hits);
+        if (unique) {
+            series.values().forEach(hitSeries -> hitSeries.setUnique(new long[size]));
+            hitStore.forEachBucket(start, end, uris, true, level, (app, uri, bucket, hits) -> {
+                HitSeriesDto hitSeries = seriesFor(series, app, uri, size);
+                if (hitSeries.getUnique() == null) {
+                    hitSeries.setUnique(new long[size]);
+                }
+                hitSeries.getUnique()[bucketIndex(level, origin, bucket)] = hits;
+            });
+        }
+        log.info("Получен ряд по {} корзинам {} для {} uri.", buckets, level, series.size());
+        return TimeSeriesDto.builder()
+                .interval(level.name())
+                .start(origin)
+                .buckets(size)
+                .series(series.values().stream()
+                        .sorted(Comparator.comparingLong((HitSeriesDto hitSeries) ->
+                                Arrays.stream(hitSeries.getHits()).sum()).reversed())
+                        .collect(Collectors.toList()))
+                .build();
+    }
+
+    public List<HitOutputDto> getTopHits(int k, String window) {
+        TopWindow topWindow = checkTop(k, window);
+        List<HitOutputDto> topHitStats = topHits.top(k, topWindow);
+        log.info("Получены {} самых просматриваемых uri за {}.", topHitStats.size(), topWindow);
+        return topHitStats;
+    }
+
+    /**
+     * Выключенный топ не отвечает пустым списком: его нет, и запрос получает 404.
+     */
+    public TopWindow checkTop(int k, String window) {
+        if (!topHits.isEnabled()) {
+            throw new NotFoundException("Топ просмотров выключен (stats.top.enabled=false).");
+        }
+        if (k < 1 || k > topHits.getMaxK()) {
+            throw new ValidationException("k должно быть от 1 до " + topHits.getMaxK() + ".");
+        }
+        try {
+            return TopWindow.valueOf(window.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Окно должно быть hour или day.");
+        }
+    }
+
+    /**
+     * Статистика без фильтра по uri пишется в поток JSON-массивом (или записями HitCodec, если binary) по мере
+     * чтения курсора, не собираясь в список. Приближённый подсчёт идёт по скетчам в памяти и пишется уже готовым.
+     */
+    public void writeHitStats(LocalDateTime start, LocalDateTime end, boolean unique, boolean approximate,
+                              boolean binary, OutputStream output) throws IOException {
+        try {
+            if (binary) {
+                OutputStream buffered = new BufferedOutputStream(output);
+                forEachHitStat(start, end, unique, approximate, hitStat -> {
+                    try {
+                        HitCodec.writeHitStat(hitStat, buffered);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                buffered.flush();
             } else {
-                hitStats = hitRepository.findAllByTimestampAndUris(start, end, uris);
-                log.info("Получена статистика по uri.");
+                try (SequenceWriter writer = objectMapper.writerFor(HitOutputDto.class).writeValuesAsArray(output)) {
+                    forEachHitStat(start, end, unique, approximate, hitStat -> {
+                        try {
+                            writer.write(hitStat);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
             }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        log.info("Статистика отдана потоком.");
+    }
+
+    private void forEachHitStat(LocalDateTime start, LocalDateTime end, boolean unique, boolean approximate,
+                                Consumer<HitOutputDto> write) {
+        if (isEstimated(start, end)) {
+            findSealedStats(start, end, null, unique, approximate).forEach(write);
+            return;
+        }
+        boolean sketched = isApproximate(unique, approximate);
+        long[] rows = new long[1];
+        Timer.Sample sample = Timer.start(meterRegistry);
+        if (sketched) {
+            sketchService.estimate(start, end, null).forEach(write.andThen(hitStat -> rows[0]++));
         } else {
-            if (unique) {
-                hitStats = hitRepository.findAllByTimestampAndUniqueIp(start, end);
-                log.info("Получена статистика по уникальному ip.");
-            } else {
-                hitStats = hitRepository.findAllByTimestamp(start, end);
-                log.info("Получена статистика.");
+            hitStore.forEachHit(start, end, null, unique, write.andThen(hitStat -> rows[0]++));
+        }
+        sample.stop(queryTimer(false, unique, sketched ? SKETCH : STORE));
+        queryRows(false, unique, sketched ? SKETCH : STORE).record(rows[0]);
+    }
+
+    private List<HitOutputDto> findHitStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                            boolean approximate) {
+        HotTail tail = hotTail(start, end, unique, approximate);
+        if (tail == null) {
+            return findSealedStats(start, end, uris, unique, approximate);
+        }
+        return timed(uris, unique, HOT_WINDOW, () -> findHotStats(start, end, uris, unique, approximate, tail));
+    }
+
+    /**
+     * Хвост интервала в памяти, если запрос может его использовать: точные уникальные ip считаются по нему, только
+     * когда он покрывает весь интервал.
+     */
+    private HotTail hotTail(LocalDateTime start, LocalDateTime end, boolean unique, boolean approximate) {
+        HotTail tail = hotWindow.tail(start, end);
+        if (tail == null || unique && !isApproximate(unique, approximate) && !tail.coversAll(start)) {
+            return null;
+        }
+        return tail;
+    }
+
+    private List<HitOutputDto> findHotStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                            boolean approximate, HotTail tail) {
+        List<TimeRange> sealedRanges = tail.sealedRanges(start);
+        if (isApproximate(unique, approximate)) {
+            Map<HitKey, HyperLogLog> sketches = new HashMap<>();
+            for (TimeRange range : sealedRanges) {
+                sketchService.sketches(range.getStart(), range.getEnd(), uris)
+                        .forEach((key, sketch) -> sketches.merge(key, sketch, (current, other) -> {
+                            current.merge(other);
+                            return current;
+                        }));
+            }
+            SketchService.addIps(sketches, hotWindow.ips(tail, uris));
+            log.info("Получена приближённая статистика по уникальному ip, хвост с {} из памяти.", tail.getFrom());
+            return SketchService.toHitStats(sketches);
+        }
+        if (unique) {
+            Map<HitKey, Long> counts = new HashMap<>();
+            hotWindow.ips(tail, uris).forEach((key, ips) -> counts.put(key, (long) ips.size()));
+            log.info("Получена статистика по уникальному ip из памяти.");
+            return toHitStats(counts);
+        }
+        Map<HitKey, Long> counts = hotWindow.counts(tail, uris);
+        for (TimeRange range : sealedRanges) {
+            for (HitOutputDto hitStat : findSealedStats(range.getStart(), range.getEnd(), uris, false, false)) {
+                counts.merge(new HitKey(hitStat.getApp(), hitStat.getUri()), hitStat.getHits(), Long::sum);
             }
         }
+        log.info("Получена статистика, хвост с {} из памяти.", tail.getFrom());
+        return toHitStats(counts);
+    }
+
+    private List<HitOutputDto> findSealedStats(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                               boolean unique, boolean approximate) {
+        boolean sampled = isEstimated(start, end);
+        if (isApproximate(unique, approximate || sampled)) {
+            List<HitOutputDto> hitStats = timed(uris, true, SKETCH, () -> sketchService.estimate(start, end, uris));
+            log.info("Получена приближённая статистика по уникальному ip.");
+            return hitStats;
+        }
+        List<HitOutputDto> hitStats = timed(uris, unique, STORE, () -> hitStore.findHits(start, end, uris, unique));
+        return sampled && !unique ? withDropped(hitStats, start, end, uris) : hitStats;
+    }
+
+    /**
+     * Досчитывает статистику из хранилища просмотрами, отброшенными выборкой. Уникальные ip при выборке берутся
+     * из скетчей, которые видят все просмотры; без скетчей они остаются заниженными.
+     */
+    private List<HitOutputDto> withDropped(List<HitOutputDto> hitStats, LocalDateTime start, LocalDateTime end,
+                                           List<String> uris) {
+        Map<HitKey, Long> counts = samplingService.dropped(start, end, uris);
+        if (counts.isEmpty()) {
+            return hitStats;
+        }
+        for (HitOutputDto hitStat : hitStats) {
+            counts.merge(new HitKey(hitStat.getApp(), hitStat.getUri()), hitStat.getHits(), Long::sum);
+        }
+        log.info("Статистика досчитана по журналу выборки.");
+        return toHitStats(counts);
+    }
+
+    /**
+     * Время и размер ответа запроса статистики с тегами варианта: фильтр по uri, уникальность и источник данных.
+     */
+    private List<HitOutputDto> timed(List<String> uris, boolean unique, String source,
+                                     Supplier<List<HitOutputDto>> query) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        List<HitOutputDto> hitStats = query.get();
+        sample.stop(queryTimer(uris != null, unique, source));
+        queryRows(uris != null, unique, source).record(hitStats.size());
         return hitStats;
     }
+
+    private Timer queryTimer(boolean filtered, boolean unique, String source) {
+        return Timer.builder("stats.query")
+                .description("Время запроса статистики")
+                .tags(queryTags(filtered, unique, source))
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary queryRows(boolean filtered, boolean unique, String source) {
+        return DistributionSummary.builder("stats.query.rows")
+                .description("Число строк в ответе статистики")
+                .tags(queryTags(filtered, unique, source))
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private void recordReceived(String source, int count) {
+        meterRegistry.counter("stats.hits.received", "source", source).increment(count);
+        DistributionSummary.builder("stats.hits.request.size")
+                .description("Число просмотров в одном запросе на запись")
+                .tag("source", source)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(count);
+    }
+
+    private void recordRejected() {
+        meterRegistry.counter("stats.hits.rejected", "reason", "invalid").increment();
+    }
+
+    public void validate(List<HitInputDto> hitInputDtos, int offset) {
+        List<String> errors = new ArrayList<>();
+        for (int i = 0; i < hitInputDtos.size(); i++) {
+            HitInputDto hitInputDto = hitInputDtos.get(i);
+            if (hitInputDto == null) {
+                errors.add("[" + (offset + i) + "] запись пуста.");
+                continue;
+            }
+            for (ConstraintViolation<HitInputDto> violation : validator.validate(hitInputDto)) {
+                errors.add("[" + (offset + i) + "] " + violation.getMessage());
+            }
+            if (!isValidIp(hitInputDto.getIp())) {
+                errors.add("[" + (offset + i) + "] " + INVALID_IP_MESSAGE);
+            }
+        }
+        if (!errors.isEmpty()) {
+            recordRejected();
+            throw new ValidationException(String.join(" ", errors));
+        }
+    }
+
+    public boolean isValid(HitInputDto hitInputDto) {
+        if (validator.validate(hitInputDto).isEmpty() && isValidIp(hitInputDto.getIp())) {
+            return true;
+        }
+        recordRejected();
+        return false;
+    }
+
+    public void checkRange(LocalDateTime start, LocalDateTime end) {
+        if (start.isAfter(end)) {
+            throw new ValidationException("Дата начала раньше даты окончания.");
+        }
+    }
+
+    private void checkIp(HitInputDto hitInputDto) {
+        if (!isValidIp(hitInputDto.getIp())) {
+            recordRejected();
+            throw new ValidationException(INVALID_IP_MESSAGE);
+        }
+    }
+
+    /**
+     * Пустой ip отклоняет проверка аннотаций; здесь проверяется только запись адреса при любой раскладке хранения.
+     */
+    private static boolean isValidIp(String ip) {
+        return ip == null || IPV4.matcher(ip).matches() || isIpv6(ip);
+    }
+
+    /**
+     * Строку из шестнадцатеричных цифр, точек и хотя бы одного двоеточия InetAddress разбирает как литерал IPv6 и
+     * на неверной записи бросает исключение, не обращаясь к DNS.
+     */
+    private static boolean isIpv6(String ip) {
+        if (ip.indexOf(':') < 0 || !IPV6_CHARS.matcher(ip).matches()) {
+            return false;
+        }
+        try {
+            InetAddress.getByName(ip);
+            return true;
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    private HitSeriesDto seriesFor(Map<HitKey, HitSeriesDto> series, String app, String uri, int size) {
+        return series.computeIfAbsent(new HitKey(app, uri), key -> {
+            if ((series.size() + 1L) * size > maxPoints) {
+                throw new ValidationException("Не более " + maxPoints + " точек в ряду: укажите uris или сократите " +
+                        "интервал.");
+            }
+            return HitSeriesDto.builder()
+                    .app(app)
+                    .uri(uri)
+                    .hits(new long[size])
+                    .build();
+        });
+    }
+
+    private static int bucketIndex(RollupLevel level, LocalDateTime origin, LocalDateTime bucket) {
+        return (int) level.getUnit().between(origin, bucket);
+    }
+
+    private static Tags queryTags(boolean filtered, boolean unique, String source) {
+        return Tags.of("uris", String.valueOf(filtered), "unique", String.valueOf(unique), "source", source);
+    }
+
+    private static List<HitOutputDto> toHitStats(Map<HitKey, Long> counts) {
+        return counts.entrySet().stream()
+                .map(count -> new HitOutputDto(count.getKey().getApp(), count.getKey().getUri(), count.getValue()))
+                .sorted(Comparator.comparing(HitOutputDto::getHits).reversed())
+                .collect(Collectors.toList());
+    }
+
+    private static List<Hit> toHits(List<HitInputDto> hitInputDtos) {
+        return hitInputDtos.stream()
+                .map(HitMapper::toHit)
+                .collect(Collectors.toList());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,14 @@
+package ru.practicum.sketch;
+
+import lombok.Value;
+import ru.practicum.rollup.RollupLevel;
+
+import java.time.LocalDateTime;
+
+@Value
+public class SketchKey {
+    String app;
+    String uri;
+    RollupLevel level;
+    LocalDateTime bucket;
+}
@@ -0,0 +1,169 @@
+package ru.practicum.sketch;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.HitOutputDto;
+import ru.practicum.model.Hit;
+import ru.practicum.model.HitKey;
+import ru.practicum.repository.SketchRepository;
+import ru.practicum.rollup.RollupCoverage;
+import ru.practicum.rollup.RollupLevel;
+import ru.practicum.rollup.RollupPlanner;
+import ru.practicum.rollup.RollupSlice;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * Скетчи уникальных ip по (app, uri, час/день). Новые ip копятся в памяти и периодически сливаются в базу;
+ * слияние HyperLogLog идемпотентно, поэтому повторная запись дельты ничего не портит. Сливаемая дельта остаётся
+ * видна запросам в flushing, пока слияние не зафиксировано: запрос держит блокировку чтения, и дельта не исчезнет
+ * между его чтением базы и памяти. Скетчи полны только с отметки в {@link RollupCoverage}, раньше неё
+ * уникальные ip считаются по сырым просмотрам.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SketchService {
+    private static final List<RollupLevel> SKETCH_LEVELS = List.of(RollupLevel.HOUR, RollupLevel.DAY);
+    private static final Comparator<SketchKey> KEY_ORDER = Comparator.comparing(SketchKey::getUri)
+            .thenComparing(SketchKey::getLevel)
+            .thenComparing(SketchKey::getBucket)
+            .thenComparing(SketchKey::getApp);
+    private final SketchRepository sketchRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectProvider<RollupCoverage> rollupCoverage;
+    private final Map<SketchKey, HyperLogLog> pending = new ConcurrentHashMap<>();
+    private final Map<SketchKey, HyperLogLog> flushing = new ConcurrentHashMap<>();
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+
+    public void record(List<Hit> hits) {
+        for (Hit hit : hits) {
+            long hash = HyperLogLog.hash(hit.getIp());
+            for (RollupLevel level : SKETCH_LEVELS) {
+                SketchKey key = new SketchKey(hit.getApp(), hit.getUri(), level, level.floor(hit.getTimestamp()));
+                pending.compute(key, (k, sketch) -> {
+                    HyperLogLog target = sketch != null ? sketch : new HyperLogLog();
+                    target.addHash(hash);
+                    return target;
+                });
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${stats.sketch.flush-interval-ms:5000}")
+    @PreDestroy
+    public synchronized void flush() {
+        List<Map.Entry<SketchKey, HyperLogLog>> deltas = new ArrayList<>();
+        for (SketchKey key : pending.keySet()) {
+            pending.computeIfPresent(key, (k, delta) -> {
+                flushing.put(k, delta);
+                deltas.add(new AbstractMap.SimpleEntry<>(k, delta));
+                return null;
+            });
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        deltas.sort(Map.Entry.comparingByKey(KEY_ORDER));
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                    deltas.forEach(delta -> sketchRepository.merge(delta.getKey(), delta.getValue())));
+            log.debug("В базу слито {} скетчей уникальных ip.", deltas.size());
+        } catch (RuntimeException e) {
+            log.error("Не удалось слить {} скетчей уникальных ip: {}", deltas.size(), e.getMessage());
+            deltas.forEach(delta -> pending.merge(delta.getKey(), delta.getValue(), (current, failed) -> {
+                current.merge(failed);
+                return current;
+            }));
+        }
+        flushLock.writeLock().lock();
+        try {
+            deltas.forEach(delta -> flushing.remove(delta.getKey(), delta.getValue()));
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    public List<HitOutputDto> estimate(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        return toHitStats(sketches(start, end, uris));
+    }
+
+    public Map<HitKey, HyperLogLog> sketches(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        Set<String> uriFilter = uris != null ? new HashSet<>(uris) : null;
+        Map<HitKey, HyperLogLog> groups = new HashMap<>();
+        RollupCoverage coverage = rollupCoverage.getIfAvailable();
+        LocalDateTime since = coverage != null ? coverage.sketchesSince() : null;
+        List<RollupSlice> slices = since != null
+                ? RollupPlanner.plan(start, end, SKETCH_LEVELS, since)
+                : RollupPlanner.plan(start, end, SKETCH_LEVELS);
+        flushLock.readLock().lock();
+        try {
+            for (RollupSlice slice : slices) {
+                if (slice.isRaw()) {
+                    sketchRepository.forEachDistinctIp(slice, uris, rs -> group(groups, rs.getString("app"),
+                            rs.getString("uri")).add(rs.getString("ip")));
+                    continue;
+                }
+                sketchRepository.forEachSketch(slice, uris, rs -> group(groups, rs.getString("app"),
+                        rs.getString("uri")).merge(rs.getBytes("registers")));
+                addDeltas(groups, pending, slice, uriFilter);
+                addDeltas(groups, flushing, slice, uriFilter);
+            }
+        } finally {
+            flushLock.readLock().unlock();
+        }
+        return groups;
+    }
+
+    public static List<HitOutputDto> toHitStats(Map<HitKey, HyperLogLog> sketches) {
+        return sketches.entrySet().stream()
+                .map(group -> new HitOutputDto(group.getKey().getApp(), group.getKey().getUri(),
+                        group.getValue().estimate()))
+                .sorted(Comparator.comparing(HitOutputDto::getHits).reversed())
+                .collect(Collectors.toList());
+    }
+
+    public static void addIps(Map<HitKey, HyperLogLog> sketches, Map<HitKey, ? extends Collection<String>> ips) {
+        ips.forEach((key, values) -> {
+            HyperLogLog sketch = sketches.computeIfAbsent(key, k -> new HyperLogLog());
+            values.forEach(sketch::add);
+        });
+    }
+
+    /**
+     * Сначала pending, потом flushing: дельта попадает в flushing раньше, чем покидает pending, и видна хотя бы
+     * в одной из них.
+     */
+    private static void addDeltas(Map<HitKey, HyperLogLog> groups, Map<SketchKey, HyperLogLog> deltas,
+                                  RollupSlice slice, Set<String> uriFilter) {
+        deltas.forEach((key, delta) -> {
+            if (key.getLevel() == slice.getLevel()
+                    && !key.getBucket().isBefore(slice.getFrom()) && key.getBucket().isBefore(slice.getTo())
+                    && (uriFilter == null || uriFilter.contains(key.getUri()))) {
+                group(groups, key.getApp(), key.getUri()).merge(delta);
+            }
+        });
+    }
+
+    private static HyperLogLog group(Map<HitKey, HyperLogLog> groups, String app, String uri) {
+        return groups.computeIfAbsent(new HitKey(app, uri), key -> new HyperLogLog());
+    }
+}
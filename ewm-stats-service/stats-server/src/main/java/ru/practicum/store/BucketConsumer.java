@@ -0,0 +1,8 @@
+package ru.practicum.store;
+
+import java.time.LocalDateTime;
+
+@FunctionalInterface
+public interface BucketConsumer {
+    void accept(String app, String uri, LocalDateTime bucket, long hits);
+}
@@ -0,0 +1,60 @@
+package ru.practicum.store;
+
+import ru.practicum.HitOutputDto;
+import ru.practicum.model.Hit;
+import ru.practicum.page.PageCollector;
+import ru.practicum.page.StatsPage;
+import ru.practicum.rollup.RollupLevel;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Хранилище просмотров: запись пачками и агрегация по (app, uri) за интервал [start, end] в порядке убывания
+ * числа просмотров. Реализация выбирается свойством stats.store.
+ */
+public interface HitStore {
+    /**
+     * Готовит всё, что нужно пачке до транзакции записи: секции, id словаря. Вызывается без открытой транзакции,
+     * чтобы DDL и словарь не занимали второе соединение, пока писатель держит первое.
+     */
+    default void prepare(List<Hit> hits) {
+    }
+
+    void append(List<Hit> hits);
+
+    void forEachHit(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                    Consumer<HitOutputDto> action);
+
+    /**
+     * Просмотры по корзинам interval: для каждой (app, uri, начало корзины) с ненулевым числом просмотров.
+     */
+    void forEachBucket(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                       RollupLevel interval, BucketConsumer action);
+
+    default List<HitOutputDto> findHits(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique) {
+        List<HitOutputDto> hitStats = new ArrayList<>();
+        forEachHit(start, end, uris, unique, hitStats::add);
+        return hitStats;
+    }
+
+    /**
+     * Страница статистики, не больше page.limit + 1 строк. По умолчанию отбирается из всех групп без их
+     * накопления; хранилище, умеющее отдать страницу запросом, переопределяет метод.
+     */
+    default List<HitOutputDto> findPage(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                        StatsPage page) {
+        PageCollector collector = page.collector();
+        forEachHit(start, end, uris, unique, collector);
+        return collector.rows();
+    }
+
+    /**
+     * Скетчи уникальных ip строятся по сырым данным в базе, поэтому доступны только реляционному хранилищу.
+     */
+    default boolean supportsSketches() {
+        return false;
+    }
+}
@@ -0,0 +1,165 @@
+package ru.practicum.store;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.HitOutputDto;
+import ru.practicum.dictionary.HitDictionary;
+import ru.practicum.model.Hit;
+import ru.practicum.model.StorageLayout;
+import ru.practicum.page.StatsPage;
+import ru.practicum.partition.HitPartitionManager;
+import ru.practicum.repository.CompactHitRepository;
+import ru.practicum.repository.HitBatchRepository;
+import ru.practicum.repository.HitRepository;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.repository.TimeSeriesRepository;
+import ru.practicum.repository.UniqueIpRepository;
+import ru.practicum.rollup.RollupCoverage;
+import ru.practicum.rollup.RollupLevel;
+import ru.practicum.rollup.RollupPlanner;
+import ru.practicum.rollup.RollupSlice;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "stats.store", havingValue = "RELATIONAL", matchIfMissing = true)
+public class RelationalHitStore implements HitStore {
+    private static final List<RollupLevel> COUNT_LEVELS = List.of(RollupLevel.values());
+    private static final List<RollupLevel> UNIQUE_LEVELS = List.of(RollupLevel.DAY);
+    private final HitRepository hitRepository;
+    private final HitBatchRepository hitBatchRepository;
+    private final RollupRepository rollupRepository;
+    private final CompactHitRepository compactHitRepository;
+    private final TimeSeriesRepository timeSeriesRepository;
+    private final UniqueIpRepository uniqueIpRepository;
+    private final ObjectProvider<HitPartitionManager> hitPartitionManager;
+    private final HitDictionary hitDictionary;
+    private final RollupCoverage rollupCoverage;
+    @Value("${stats.rollup.enabled:true}")
+    private boolean rollupEnabled;
+    @Value("${stats.unique-index.enabled:true}")
+    private boolean uniqueIndexEnabled;
+    @Value("${stats.storage.layout:PLAIN}")
+    private StorageLayout layout;
+
+    @Override
+    public void prepare(List<Hit> hits) {
+        hitPartitionManager.ifAvailable(manager -> manager.ensurePartitions(hits));
+        if (layout == StorageLayout.DICTIONARY) {
+            for (Hit hit : hits) {
+                hitDictionary.appId(hit.getApp());
+                hitDictionary.uriId(hit.getUri());
+            }
+        }
+    }
+
+    @Override
+    public void append(List<Hit> hits) {
+        hitBatchRepository.saveAll(hits);
+        if (rollupEnabled) {
+            rollupRepository.increment(hits);
+        }
+        if (uniqueIndexEnabled) {
+            uniqueIpRepository.add(hits);
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachHit(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                           Consumer<HitOutputDto> action) {
+        if (!unique && rollupEnabled) {
+            rollupRepository.forEachHit(countSlices(start, end, COUNT_LEVELS), uris, action);
+            log.info("Получена статистика из агрегатов.");
+        } else if (unique && uniqueIndexEnabled) {
+            uniqueIpRepository.forEachHit(uniqueSlices(start, end), uris, action);
+            log.info("Получена статистика по уникальному ip из дневных множеств.");
+        } else if (layout == StorageLayout.DICTIONARY) {
+            compactHitRepository.forEachHit(start, end, uris, unique, action);
+            log.info("Получена статистика из словарного хранилища.");
+        } else if (uris == null) {
+            try (Stream<HitOutputDto> hitStats = unique ? hitRepository.streamAllByTimestampAndUniqueIp(start, end)
+                    : hitRepository.streamAllByTimestamp(start, end)) {
+                hitStats.forEach(action);
+            }
+            log.info("Получена статистика{}.", unique ? " по уникальному ip" : "");
+        } else {
+            findHitStats(start, end, uris, unique).forEach(action);
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<HitOutputDto> findHits(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique) {
+        return HitStore.super.findHits(start, end, uris, unique);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<HitOutputDto> findPage(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                       StatsPage page) {
+        List<HitOutputDto> hitStats = new ArrayList<>();
+        if (!unique && rollupEnabled) {
+            rollupRepository.forEachHit(countSlices(start, end, COUNT_LEVELS), uris, page, hitStats::add);
+            log.info("Получена страница статистики из агрегатов.");
+        } else if (unique && uniqueIndexEnabled) {
+            uniqueIpRepository.forEachHit(uniqueSlices(start, end), uris, page, hitStats::add);
+            log.info("Получена страница статистики по уникальному ip из дневных множеств.");
+        } else {
+            hitStats = HitStore.super.findPage(start, end, uris, unique, page);
+        }
+        return hitStats;
+    }
+
+    @Override
+    public void forEachBucket(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                              RollupLevel interval, BucketConsumer action) {
+        if (unique && uniqueIndexEnabled && interval == RollupLevel.DAY) {
+            uniqueIpRepository.forEachDay(uniqueSlices(start, end), uris, action);
+            log.info("Получены уникальные ip по дням из дневных множеств.");
+            return;
+        }
+        List<RollupSlice> slices = !unique && rollupEnabled
+                ? countSlices(start, end, COUNT_LEVELS.subList(0, interval.ordinal() + 1))
+                : List.of(RollupSlice.raw(start, end, true));
+        timeSeriesRepository.forEachBucket(slices, uris, interval, unique, action);
+        log.info("Получены просмотры по корзинам {}.", interval);
+    }
+
+    @Override
+    public boolean supportsSketches() {
+        return true;
+    }
+
+    private List<RollupSlice> countSlices(LocalDateTime start, LocalDateTime end, List<RollupLevel> levels) {
+        return RollupPlanner.plan(start, end, levels, rollupCoverage.countsSince());
+    }
+
+    private List<RollupSlice> uniqueSlices(LocalDateTime start, LocalDateTime end) {
+        return RollupPlanner.plan(start, end, UNIQUE_LEVELS, rollupCoverage.dailyIpsSince());
+    }
+
+    private List<HitOutputDto> findHitStats(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                            boolean unique) {
+        List<HitOutputDto> hitStats;
+        if (unique) {
+            hitStats = hitRepository.findAllByTimestampAndUrisAndUniqueIp(start, end, uris);
+            log.info("Получена статистика по uri и уникальному ip.");
+        } else {
+            hitStats = hitRepository.findAllByTimestampAndUris(start, end, uris);
+            log.info("Получена статистика по uri.");
+        }
+        return hitStats;
+    }
+}
@@ -0,0 +1,262 @@
+package ru.practicum.store.columnar;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.HitOutputDto;
+import ru.practicum.model.Hit;
+import ru.practicum.model.HitKey;
+import ru.practicum.rollup.RollupLevel;
+import ru.practicum.sketch.HyperLogLog;
+import ru.practicum.store.BucketConsumer;
+import ru.practicum.store.HitStore;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Встроенное колоночное хранилище: просмотры дописываются в открытый сегмент, заполненный сегмент переписывается
+ * в порядке времени и запечатывается. Агрегация — проход по примитивным колонкам тех сегментов, чей диапазон
+ * времени пересекается с запросом. Запечатанный сегмент появляется под своим именем только целиком, а открытый
+ * удаляется лишь после этого, поэтому при запуске после сбоя достаточно убрать недописанные временные файлы,
+ * открытые сегменты, у которых уже есть запечатанная копия, и дозапечатать остальные открытые, кроме последнего.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.store", havingValue = "COLUMNAR")
+public class ColumnarHitStore implements HitStore {
+    private static final String ACTIVE_SUFFIX = ".active";
+    private static final String SEALED_SUFFIX = ".sealed";
+    private final Path directory;
+    private final int segmentRows;
+    private KeyDictionary keyDictionary;
+    private volatile List<Segment> segments = Collections.emptyList();
+    private int nextSegment;
+
+    public ColumnarHitStore(@Value("${stats.columnar.directory:data/hits}") String directory,
+                            @Value("${stats.columnar.segment-rows:1048576}") int segmentRows) {
+        if (segmentRows < 1 || segmentRows > Segment.MAX_CAPACITY) {
+            throw new IllegalArgumentException("stats.columnar.segment-rows должно быть от 1 до "
+                    + Segment.MAX_CAPACITY + ".");
+        }
+        this.directory = Paths.get(directory);
+        this.segmentRows = segmentRows;
+    }
+
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        Files.createDirectories(directory);
+        keyDictionary = new KeyDictionary(directory.resolve("keys.dat"));
+        TreeMap<Integer, Path> sealedFiles = new TreeMap<>();
+        TreeMap<Integer, Path> activeFiles = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SEALED_SUFFIX)) {
+                    sealedFiles.put(segmentNumber(name, SEALED_SUFFIX), file);
+                } else if (name.endsWith(ACTIVE_SUFFIX)) {
+                    activeFiles.put(segmentNumber(name, ACTIVE_SUFFIX), file);
+                } else if (name.endsWith(Segment.TEMP_SUFFIX)) {
+                    Files.delete(file);
+                }
+            }
+        }
+        List<Segment> opened = new ArrayList<>();
+        for (Path file : sealedFiles.values()) {
+            opened.add(Segment.open(file));
+        }
+        Segment active = null;
+        for (Map.Entry<Integer, Path> entry : activeFiles.entrySet()) {
+            if (sealedFiles.containsKey(entry.getKey())) {
+                Files.delete(entry.getValue());
+                continue;
+            }
+            if (active != null) {
+                opened.add(sealAndDelete(active));
+            }
+            active = Segment.open(entry.getValue());
+        }
+        nextSegment = Math.max(sealedFiles.isEmpty() ? 0 : sealedFiles.lastKey(),
+                activeFiles.isEmpty() ? 0 : activeFiles.lastKey()) + 1;
+        opened.add(active != null ? active : Segment.create(segmentFile(nextSegment++, ACTIVE_SUFFIX), segmentRows));
+        segments = List.copyOf(opened);
+        log.info("Колоночное хранилище {} открыто: сегментов {}, ключей {}.", directory, opened.size(),
+                keyDictionary.size());
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        activeSegment().force();
+        keyDictionary.close();
+    }
+
+    @Override
+    public synchronized void append(List<Hit> hits) {
+        int size = hits.size();
+        long[] timestamps = new long[size];
+        int[] keys = new int[size];
+        long[] ipHashes = new long[size];
+        for (int i = 0; i < size; i++) {
+            Hit hit = hits.get(i);
+            timestamps[i] = toMicros(hit.getTimestamp());
+            keys[i] = keyDictionary.id(hit.getApp(), hit.getUri());
+            ipHashes[i] = HyperLogLog.hash(hit.getIp());
+        }
+        int written = 0;
+        while (written < size) {
+            written += activeSegment().append(timestamps, keys, ipHashes, written, size - written);
+            if (activeSegment().isFull()) {
+                sealActive();
+            }
+        }
+    }
+
+    @Override
+    public void forEachHit(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                           Consumer<HitOutputDto> action) {
+        long from = toMicros(start);
+        long to = toMicros(end);
+        int keyCount = keyDictionary.size();
+        boolean[] keyFilter = uris != null ? keyDictionary.mask(uris, keyCount) : null;
+        long[] counts = new long[keyCount];
+        LongHashSet[] ips = unique ? new LongHashSet[keyCount] : null;
+        for (Segment segment : segments) {
+            if (!segment.overlaps(from, to)) {
+                continue;
+            }
+            if (unique) {
+                segment.collectIps(from, to, keyFilter, ips);
+            } else {
+                segment.count(from, to, keyFilter, counts);
+            }
+        }
+        if (unique) {
+            for (int key = 0; key < keyCount; key++) {
+                counts[key] = ips[key] != null ? ips[key].size() : 0;
+            }
+        }
+        List<HitOutputDto> hitStats = new ArrayList<>();
+        for (int key = 0; key < keyCount; key++) {
+            if (counts[key] > 0) {
+                HitKey hitKey = keyDictionary.key(key);
+                hitStats.add(new HitOutputDto(hitKey.getApp(), hitKey.getUri(), counts[key]));
+            }
+        }
+        hitStats.sort(Comparator.comparing(HitOutputDto::getHits).reversed());
+        hitStats.forEach(action);
+        log.info("Получена статистика из колоночного хранилища.");
+    }
+
+    @Override
+    public void forEachBucket(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                              RollupLevel interval, BucketConsumer action) {
+        long from = toMicros(start);
+        long to = toMicros(end);
+        long origin = toMicros(interval.floor(start));
+        long width = interval.getUnit().getDuration().toNanos() / 1_000;
+        int buckets = (int) ((to - origin) / width) + 1;
+        int keyCount = keyDictionary.size();
+        boolean[] keyFilter = uris != null ? keyDictionary.mask(uris, keyCount) : null;
+        long[][] counts = new long[keyCount][];
+        LongHashSet[][] ips = unique ? new LongHashSet[keyCount][] : null;
+        for (Segment segment : segments) {
+            if (!segment.overlaps(from, to)) {
+                continue;
+            }
+            segment.forEachRow(from, to, keyFilter, keyCount, (key, timestamp, ipHash) -> {
+                int bucket = (int) ((timestamp - origin) / width);
+                if (unique) {
+                    if (ips[key] == null) {
+                        ips[key] = new LongHashSet[buckets];
+                    }
+                    if (ips[key][bucket] == null) {
+                        ips[key][bucket] = new LongHashSet();
+                    }
+                    ips[key][bucket].add(ipHash);
+                } else {
+                    if (counts[key] == null) {
+                        counts[key] = new long[buckets];
+                    }
+                    counts[key][bucket]++;
+                }
+            });
+        }
+        for (int key = 0; key < keyCount; key++) {
+            if (counts[key] == null && (ips == null || ips[key] == null)) {
+                continue;
+            }
+            HitKey hitKey = keyDictionary.key(key);
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                long hits = unique
+                        ? ips[key][bucket] != null ? ips[key][bucket].size() : 0
+                        : counts[key][bucket];
+                if (hits > 0) {
+                    action.accept(hitKey.getApp(), hitKey.getUri(), interval.floor(start).plus(bucket,
+                            interval.getUnit()), hits);
+                }
+            }
+        }
+        log.info("Получены просмотры по корзинам {} из колоночного хранилища.", interval);
+    }
+
+    private Segment activeSegment() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private void sealActive() {
+        Segment active = activeSegment();
+        try {
+            Segment sealed = active.seal(sealedFile(active));
+            Segment next = Segment.create(segmentFile(nextSegment++, ACTIVE_SUFFIX), segmentRows);
+            List<Segment> updated = new ArrayList<>(segments.subList(0, segments.size() - 1));
+            updated.add(sealed);
+            updated.add(next);
+            segments = List.copyOf(updated);
+            Files.delete(active.getFile());
+            log.info("Сегмент {} запечатан: {} просмотров.", sealed.getFile().getFileName(), sealed.getRows());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Segment sealAndDelete(Segment active) throws IOException {
+        Segment sealed = active.seal(sealedFile(active));
+        Files.delete(active.getFile());
+        log.info("Сегмент {} дозапечатан после сбоя: {} просмотров.", sealed.getFile().getFileName(),
+                sealed.getRows());
+        return sealed;
+    }
+
+    private Path sealedFile(Segment active) {
+        return segmentFile(segmentNumber(active.getFile().getFileName().toString(), ACTIVE_SUFFIX), SEALED_SUFFIX);
+    }
+
+    private Path segmentFile(int number, String suffix) {
+        return directory.resolve(String.format("segment-%08d%s", number, suffix));
+    }
+
+    private static int segmentNumber(String name, String suffix) {
+        return Integer.parseInt(name.substring("segment-".length(), name.length() - suffix.length()));
+    }
+
+    private static long toMicros(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + timestamp.getNano() / 1_000;
+    }
+}
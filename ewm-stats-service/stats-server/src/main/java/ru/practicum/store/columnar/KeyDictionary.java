@@ -0,0 +1,91 @@
+package ru.practicum.store.columnar;
+
+import ru.practicum.model.HitKey;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Номера пар (app, uri) для колонки ключей. Новые пары дописываются в файл до того, как попадут в сегмент,
+ * поэтому после перезапуска каждый номер в сегментах можно расшифровать.
+ */
+class KeyDictionary {
+    private final Map<HitKey, Integer> ids = new ConcurrentHashMap<>();
+    private final List<HitKey> keys = new ArrayList<>();
+    private final DataOutputStream output;
+
+    KeyDictionary(Path file) throws IOException {
+        if (Files.exists(file)) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while (true) {
+                    HitKey key = new HitKey(input.readUTF(), input.readUTF());
+                    ids.put(key, keys.size());
+                    keys.add(key);
+                }
+            } catch (EOFException e) {
+                // файл читается до конца; недописанная последняя запись отбрасывается
+            }
+        }
+        output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    }
+
+    int id(String app, String uri) {
+        HitKey key = new HitKey(app, uri);
+        Integer id = ids.get(key);
+        return id != null ? id : add(key);
+    }
+
+    synchronized HitKey key(int id) {
+        return keys.get(id);
+    }
+
+    synchronized int size() {
+        return keys.size();
+    }
+
+    boolean[] mask(List<String> uris, int size) {
+        Set<String> uriFilter = new HashSet<>(uris);
+        boolean[] mask = new boolean[size];
+        for (int id = 0; id < size; id++) {
+            mask[id] = uriFilter.contains(key(id).getUri());
+        }
+        return mask;
+    }
+
+    synchronized void close() throws IOException {
+        output.close();
+    }
+
+    private synchronized int add(HitKey key) {
+        Integer existing = ids.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            output.writeUTF(key.getApp());
+            output.writeUTF(key.getUri());
+            output.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int id = keys.size();
+        keys.add(key);
+        ids.put(key, id);
+        return id;
+    }
+}
@@ -0,0 +1,54 @@
+package ru.practicum.store.columnar;
+
+/**
+ * Множество long с открытой адресацией для подсчёта уникальных хешей ip без упаковки в Long.
+ */
+class LongHashSet {
+    private static final long EMPTY = 0;
+    private long[] table = new long[16];
+    private boolean hasEmpty;
+    private int size;
+
+    void add(long value) {
+        if (value == EMPTY) {
+            if (!hasEmpty) {
+                hasEmpty = true;
+                size++;
+            }
+            return;
+        }
+        if ((size + 1) * 2 > table.length) {
+            grow();
+        }
+        if (insert(table, value)) {
+            size++;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] grown = new long[table.length * 2];
+        for (long value : table) {
+            if (value != EMPTY) {
+                insert(grown, value);
+            }
+        }
+        table = grown;
+    }
+
+    private static boolean insert(long[] table, long value) {
+        int mask = table.length - 1;
+        int index = (int) (value ^ value >>> 32) & mask;
+        while (table[index] != EMPTY) {
+            if (table[index] == value) {
+                return false;
+            }
+            index = index + 1 & mask;
+        }
+        table[index] = value;
+        return true;
+    }
+}
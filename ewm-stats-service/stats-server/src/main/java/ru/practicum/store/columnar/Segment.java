@@ -0,0 +1,300 @@
+package ru.practicum.store.columnar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Сегмент в отображённом в память файле: заголовок и три колонки — время в микросекундах, номер (app, uri)
+ * и хеш ip. Открытый сегмент только дописывается; запечатанный переписан в порядке времени, так что границы
+ * интервала в нём ищутся двоичным поиском. Минимальное и максимальное время позволяют пропускать сегменты целиком.
+ * Файл отображается одним буфером, поэтому строк в сегменте не больше MAX_CAPACITY.
+ */
+class Segment {
+    static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x48495453;
+    private static final int HEADER_BYTES = 64;
+    private static final int ROWS_OFFSET = 8;
+    private static final int SEALED_OFFSET = 12;
+    private static final int MIN_OFFSET = 16;
+    private static final int MAX_OFFSET = 24;
+    private static final int ROW_BYTES = Long.BYTES + Integer.BYTES + Long.BYTES;
+    static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_BYTES) / ROW_BYTES;
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final LongBuffer timestamps;
+    private final IntBuffer keys;
+    private final LongBuffer ipHashes;
+    private final boolean sealed;
+    private volatile int rows;
+    private volatile long minTimestamp;
+    private volatile long maxTimestamp;
+
+    private Segment(Path file, MappedByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IllegalStateException("Файл " + file + " не является сегментом просмотров.");
+        }
+        this.capacity = buffer.getInt(4);
+        if (capacity < 1 || capacity > MAX_CAPACITY || buffer.capacity() < HEADER_BYTES + (long) capacity * ROW_BYTES) {
+            throw new IllegalStateException("Файл " + file + " сегмента просмотров повреждён: ёмкость " + capacity
+                    + ", размер " + buffer.capacity() + ".");
+        }
+        this.timestamps = column(buffer, HEADER_BYTES, (long) capacity * Long.BYTES).asLongBuffer();
+        this.keys = column(buffer, HEADER_BYTES + (long) capacity * Long.BYTES, (long) capacity * Integer.BYTES)
+                .asIntBuffer();
+        this.ipHashes = column(buffer, HEADER_BYTES + (long) capacity * (Long.BYTES + Integer.BYTES),
+                (long) capacity * Long.BYTES).asLongBuffer();
+        this.sealed = buffer.get(SEALED_OFFSET) == 1;
+        this.rows = buffer.getInt(ROWS_OFFSET);
+        this.minTimestamp = buffer.getLong(MIN_OFFSET);
+        this.maxTimestamp = buffer.getLong(MAX_OFFSET);
+    }
+
+    static Segment create(Path file, int capacity) throws IOException {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Строк в сегменте должно быть от 1 до " + MAX_CAPACITY + ".");
+        }
+        MappedByteBuffer buffer = map(file, HEADER_BYTES + (long) capacity * ROW_BYTES, true);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, capacity);
+        buffer.putInt(ROWS_OFFSET, 0);
+        buffer.putLong(MIN_OFFSET, Long.MAX_VALUE);
+        buffer.putLong(MAX_OFFSET, Long.MIN_VALUE);
+        return new Segment(file, buffer);
+    }
+
+    static Segment open(Path file) throws IOException {
+        return new Segment(file, map(file, 0, false));
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    boolean isFull() {
+        return rows == capacity;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    /**
+     * Дописывает строки с from, пока есть место, и возвращает, сколько поместилось. Вызывается одним писателем;
+     * число строк публикуется после колонок, так что читатели видят только записанное целиком.
+     */
+    int append(long[] batchTimestamps, int[] batchKeys, long[] batchIpHashes, int from, int count) {
+        int start = rows;
+        int appended = Math.min(count, capacity - start);
+        long min = minTimestamp;
+        long max = maxTimestamp;
+        for (int i = 0; i < appended; i++) {
+            long timestamp = batchTimestamps[from + i];
+            timestamps.put(start + i, timestamp);
+            keys.put(start + i, batchKeys[from + i]);
+            ipHashes.put(start + i, batchIpHashes[from + i]);
+            min = Math.min(min, timestamp);
+            max = Math.max(max, timestamp);
+        }
+        buffer.putLong(MIN_OFFSET, min);
+        buffer.putLong(MAX_OFFSET, max);
+        buffer.putInt(ROWS_OFFSET, start + appended);
+        minTimestamp = min;
+        maxTimestamp = max;
+        rows = start + appended;
+        return appended;
+    }
+
+    /**
+     * Переписывает строки в порядке времени во временный запечатанный файл, сбрасывает его на диск и только затем
+     * переименовывает в target: файл target либо отсутствует, либо полон, а исходный сегмент не трогается, так что
+     * прерванное запечатывание можно просто повторить.
+     */
+    Segment seal(Path target) throws IOException {
+        int count = rows;
+        long[] columnTimestamps = new long[count];
+        for (int i = 0; i < count; i++) {
+            columnTimestamps[i] = timestamps.get(i);
+        }
+        int[] order = sortedOrder(columnTimestamps);
+        long[] sortedTimestamps = new long[count];
+        int[] sortedKeys = new int[count];
+        long[] sortedIpHashes = new long[count];
+        for (int i = 0; i < count; i++) {
+            sortedTimestamps[i] = columnTimestamps[order[i]];
+            sortedKeys[i] = keys.get(order[i]);
+            sortedIpHashes[i] = ipHashes.get(order[i]);
+        }
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        Segment segment = create(temp, Math.max(count, 1));
+        segment.append(sortedTimestamps, sortedKeys, sortedIpHashes, 0, count);
+        segment.buffer.put(SEALED_OFFSET, (byte) 1);
+        segment.buffer.force();
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return open(target);
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    boolean overlaps(long from, long to) {
+        return rows > 0 && minTimestamp <= to && maxTimestamp >= from;
+    }
+
+    void count(long from, long to, boolean[] keyFilter, long[] counts) {
+        int end = rows;
+        if (sealed) {
+            int last = upperBound(to, end);
+            for (int i = lowerBound(from, end); i < last; i++) {
+                int key = keys.get(i);
+                if (key < counts.length && (keyFilter == null || keyFilter[key])) {
+                    counts[key]++;
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < end; i++) {
+            long timestamp = timestamps.get(i);
+            int key = keys.get(i);
+            if (timestamp >= from && timestamp <= to && key < counts.length
+                    && (keyFilter == null || keyFilter[key])) {
+                counts[key]++;
+            }
+        }
+    }
+
+    void collectIps(long from, long to, boolean[] keyFilter, LongHashSet[] ips) {
+        int end = rows;
+        int first = sealed ? lowerBound(from, end) : 0;
+        int last = sealed ? upperBound(to, end) : end;
+        for (int i = first; i < last; i++) {
+            int key = keys.get(i);
+            if (key >= ips.length || keyFilter != null && !keyFilter[key]) {
+                continue;
+            }
+            long timestamp = timestamps.get(i);
+            if (!sealed && (timestamp < from || timestamp > to)) {
+                continue;
+            }
+            if (ips[key] == null) {
+                ips[key] = new LongHashSet();
+            }
+            ips[key].add(ipHashes.get(i));
+        }
+    }
+
+    void forEachRow(long from, long to, boolean[] keyFilter, int keyCount, RowConsumer action) {
+        int end = rows;
+        int first = sealed ? lowerBound(from, end) : 0;
+        int last = sealed ? upperBound(to, end) : end;
+        for (int i = first; i < last; i++) {
+            int key = keys.get(i);
+            long timestamp = timestamps.get(i);
+            if (key < keyCount && (keyFilter == null || keyFilter[key]) && timestamp >= from && timestamp <= to) {
+                action.accept(key, timestamp, ipHashes.get(i));
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface RowConsumer {
+        void accept(int key, long timestamp, long ipHash);
+    }
+
+    private int lowerBound(long from, int end) {
+        int low = 0;
+        int high = end;
+        while (low < high) {
+            int middle = low + high >>> 1;
+            if (timestamps.get(middle) < from) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int upperBound(long to, int end) {
+        int low = 0;
+        int high = end;
+        while (low < high) {
+            int middle = low + high >>> 1;
+            if (timestamps.get(middle) <= to) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Номера строк в порядке возрастания времени, равные — в порядке записи. Сортировка слиянием по примитивным
+     * массивам: строки открытого сегмента почти упорядочены, и уже упорядоченные отрезки сливаются без перестановок.
+     */
+    private static int[] sortedOrder(long[] values) {
+        int count = values.length;
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        int[] merged = new int[count];
+        for (long width = 1; width < count; width *= 2) {
+            for (long low = 0; low < count; low += 2 * width) {
+                int middle = (int) Math.min(low + width, count);
+                int high = (int) Math.min(low + 2 * width, count);
+                int left = (int) low;
+                int right = middle;
+                int target = (int) low;
+                if (right < high && values[order[right - 1]] <= values[order[right]]) {
+                    System.arraycopy(order, left, merged, left, high - left);
+                    continue;
+                }
+                while (left < middle && right < high) {
+                    merged[target++] = values[order[left]] <= values[order[right]] ? order[left++] : order[right++];
+                }
+                System.arraycopy(order, left, merged, target, middle - left);
+                target += middle - left;
+                System.arraycopy(order, right, merged, target, high - right);
+            }
+            int[] swap = order;
+            order = merged;
+            merged = swap;
+        }
+        return order;
+    }
+
+    private static ByteBuffer column(ByteBuffer buffer, long offset, long length) {
+        return buffer.duplicate().position(Math.toIntExact(offset)).limit(Math.toIntExact(offset + length)).slice()
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static MappedByteBuffer map(Path file, long size, boolean create) throws IOException {
+        if (create) {
+            Files.deleteIfExists(file);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, create ? size : channel.size());
+        }
+    }
+}
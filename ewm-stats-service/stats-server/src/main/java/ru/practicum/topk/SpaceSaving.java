@@ -0,0 +1,60 @@
+package ru.practicum.topk;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Space-Saving: не больше capacity счётчиков; новый ключ при заполнении вытесняет минимальный и наследует его
+ * счёт, так что оценка может быть завышена на минимум сводки. Все ключи с частотой выше n / capacity остаются в сводке.
+ */
+public class SpaceSaving<K> {
+    private static final Comparator<Counter<?>> ORDER = Comparator.<Counter<?>>comparingLong(counter -> counter.count)
+            .thenComparingLong(counter -> counter.sequence);
+    private final int capacity;
+    private final Map<K, Counter<K>> counters = new HashMap<>();
+    private final TreeSet<Counter<K>> byCount = new TreeSet<>(ORDER);
+    private long sequence;
+
+    public SpaceSaving(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public synchronized void add(K key, long count) {
+        Counter<K> counter = counters.get(key);
+        if (counter == null) {
+            if (counters.size() < capacity) {
+                counter = new Counter<>(key, 0);
+            } else {
+                Counter<K> min = byCount.pollFirst();
+                counters.remove(min.key);
+                counter = new Counter<>(key, min.count);
+            }
+            counters.put(key, counter);
+        } else {
+            byCount.remove(counter);
+        }
+        counter.count += count;
+        counter.sequence = sequence++;
+        byCount.add(counter);
+    }
+
+    public synchronized void forEach(ObjLongConsumer<K> action) {
+        for (Counter<K> counter : counters.values()) {
+            action.accept(counter.key, counter.count);
+        }
+    }
+
+    private static class Counter<K> {
+        private final K key;
+        private long count;
+        private long sequence;
+
+        private Counter(K key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+    }
+}
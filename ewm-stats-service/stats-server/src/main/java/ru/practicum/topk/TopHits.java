@@ -0,0 +1,187 @@
+package ru.practicum.topk;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.HitOutputDto;
+import ru.practicum.model.Hit;
+import ru.practicum.model.HitKey;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+
+/**
+ * Самые просматриваемые uri за час и сутки. Окно — кольцо интервалов, в каждом сводка Space-Saving на capacity
+ * счётчиков, поэтому память зависит только от capacity, а не от числа разных uri. Сводка точна для первых k,
+ * только пока k много меньше числа счётчиков, поэтому их не меньше CAPACITY_PER_K на каждый из max-k.
+ * <p>
+ * Закрытые интервалы окна сливаются один раз на каждый сдвиг окна и хранятся в {@link Merged}; запрос добавляет
+ * к ним только текущий интервал. Поздний просмотр в закрытый интервал сбрасывает слитую сводку окна.
+ */
+@Slf4j
+@Component
+public class TopHits {
+    private static final int CAPACITY_PER_K = 10;
+    private final boolean enabled;
+    private final int maxK;
+    private final int capacity;
+    private final Map<TopWindow, AtomicReferenceArray<Bucket>> rings = new EnumMap<>(TopWindow.class);
+    private final Map<TopWindow, AtomicReference<Merged>> merged = new EnumMap<>(TopWindow.class);
+    private final Map<TopWindow, AtomicLong> versions = new EnumMap<>(TopWindow.class);
+
+    public TopHits(@Value("${stats.top.enabled:true}") boolean enabled,
+                   @Value("${stats.top.max-k:100}") int maxK,
+                   @Value("${stats.top.capacity:1000}") int capacity) {
+        this.enabled = enabled;
+        this.maxK = Math.max(1, maxK);
+        this.capacity = (int) Math.max(capacity, Math.min((long) this.maxK * CAPACITY_PER_K, Integer.MAX_VALUE));
+        if (this.capacity > capacity) {
+            log.warn("Счётчиков топа {} вместо {}: на каждый из {} первых uri их нужно не меньше {}.", this.capacity,
+                    capacity, this.maxK, CAPACITY_PER_K);
+        }
+        for (TopWindow window : TopWindow.values()) {
+            rings.put(window, new AtomicReferenceArray<>(window.getBuckets()));
+            merged.put(window, new AtomicReference<>());
+            versions.put(window, new AtomicLong());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxK() {
+        return maxK;
+    }
+
+    public void record(List<Hit> hits) {
+        for (TopWindow window : TopWindow.values()) {
+            Map<Long, Map<HitKey, Long>> byBucket = new HashMap<>();
+            for (Hit hit : hits) {
+                byBucket.computeIfAbsent(bucketIndex(window, hit.getTimestamp()), index -> new HashMap<>())
+                        .merge(new HitKey(hit.getApp(), hit.getUri()), 1L, Long::sum);
+            }
+            byBucket.forEach((index, bucketCounts) -> {
+                Bucket bucket = bucketFor(window, index);
+                if (bucket != null) {
+                    bucketCounts.forEach(bucket.summary::add);
+                }
+            });
+            long current = bucketIndex(window, LocalDateTime.now());
+            if (byBucket.keySet().stream().anyMatch(index -> index < current)) {
+                versions.get(window).incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Кандидаты в первые k — ключи текущего интервала и первые k из остальных по счёту закрытых интервалов: ключ
+     * вне текущего интервала не обгонит тех, у кого слитый счёт больше.
+     */
+    public List<HitOutputDto> top(int k, TopWindow window) {
+        long current = bucketIndex(window, LocalDateTime.now());
+        Merged closed = merged(window, current);
+        Map<HitKey, Long> counts = new HashMap<>();
+        Bucket live = rings.get(window).get(slot(window, current));
+        if (live != null && live.index == current) {
+            live.summary.forEach((key, count) -> counts.put(key, count + closed.counts.getOrDefault(key, 0L)));
+        }
+        int rest = 0;
+        for (int i = 0; i < closed.ranked.size() && rest < k; i++) {
+            Map.Entry<HitKey, Long> count = closed.ranked.get(i);
+            if (counts.putIfAbsent(count.getKey(), count.getValue()) == null) {
+                rest++;
+            }
+        }
+        return counts.entrySet().stream()
+                .sorted(Map.Entry.<HitKey, Long>comparingByValue().reversed())
+                .limit(k)
+                .map(count -> new HitOutputDto(count.getKey().getApp(), count.getKey().getUri(), count.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Версия читается до слияния, а запись поднимает её после добавления в сводку, поэтому поздний просмотр, не
+     * попавший в слияние, заставит следующий запрос слить интервалы заново.
+     */
+    private Merged merged(TopWindow window, long current) {
+        long version = versions.get(window).get();
+        Merged cached = merged.get(window).get();
+        if (cached != null && cached.current == current && cached.version == version) {
+            return cached;
+        }
+        AtomicReferenceArray<Bucket> ring = rings.get(window);
+        Map<HitKey, Long> counts = new HashMap<>();
+        for (int i = 0; i < ring.length(); i++) {
+            Bucket bucket = ring.get(i);
+            if (bucket != null && bucket.index > current - window.getBuckets() && bucket.index < current) {
+                bucket.summary.forEach((key, count) -> counts.merge(key, count, Long::sum));
+            }
+        }
+        List<Map.Entry<HitKey, Long>> ranked = counts.entrySet().stream()
+                .sorted(Map.Entry.<HitKey, Long>comparingByValue().reversed())
+                .limit((long) maxK + capacity)
+                .collect(Collectors.toList());
+        Merged fresh = new Merged(current, version, counts, ranked);
+        merged.get(window).set(fresh);
+        return fresh;
+    }
+
+    private Bucket bucketFor(TopWindow window, long index) {
+        AtomicReferenceArray<Bucket> ring = rings.get(window);
+        int slot = slot(window, index);
+        while (true) {
+            Bucket bucket = ring.get(slot);
+            if (bucket != null && bucket.index == index) {
+                return bucket;
+            }
+            if (bucket != null && bucket.index > index) {
+                return null;
+            }
+            Bucket fresh = new Bucket(index, new SpaceSaving<>(capacity));
+            if (ring.compareAndSet(slot, bucket, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    private static int slot(TopWindow window, long index) {
+        return (int) Math.floorMod(index, (long) window.getBuckets());
+    }
+
+    private static long bucketIndex(TopWindow window, LocalDateTime timestamp) {
+        return Math.floorDiv(timestamp.toEpochSecond(ZoneOffset.UTC), window.getBucket().getSeconds());
+    }
+
+    private static class Bucket {
+        private final long index;
+        private final SpaceSaving<HitKey> summary;
+
+        private Bucket(long index, SpaceSaving<HitKey> summary) {
+            this.index = index;
+            this.summary = summary;
+        }
+    }
+
+    private static class Merged {
+        private final long current;
+        private final long version;
+        private final Map<HitKey, Long> counts;
+        private final List<Map.Entry<HitKey, Long>> ranked;
+
+        private Merged(long current, long version, Map<HitKey, Long> counts, List<Map.Entry<HitKey, Long>> ranked) {
+            this.current = current;
+            this.version = version;
+            this.counts = counts;
+            this.ranked = ranked;
+        }
+    }
+}
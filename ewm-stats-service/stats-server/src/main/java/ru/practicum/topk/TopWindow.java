@@ -0,0 +1,16 @@
+package ru.practicum.topk;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.time.Duration;
+
+@Getter
+@RequiredArgsConstructor
+public enum TopWindow {
+    HOUR(Duration.ofMinutes(5), 12),
+    DAY(Duration.ofHours(1), 24);
+
+    private final Duration bucket;
+    private final int buckets;
+}
@@ -0,0 +1,107 @@
+CREATE TABLE IF NOT EXISTS hits
+(
+    hit_id BIGINT GENERATED ALWAYS AS IDENTITY,
+    app varchar(64) NOT NULL,
+    uri varchar(128) NOT NULL,
+    ip varchar(64) NOT NULL,
+    created TIMESTAMP NOT NULL,
+    PRIMARY KEY (hit_id, created)
+) PARTITION BY RANGE (created);
+
+CREATE INDEX IF NOT EXISTS hits_created_idx ON hits (created);
+CREATE INDEX IF NOT EXISTS hits_uri_created_idx ON hits (uri, created);
+
+CREATE TABLE IF NOT EXISTS hits_minute
+(
+    app varchar(64) NOT NULL,
+    uri varchar(128) NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    hits BIGINT NOT NULL,
+    PRIMARY KEY (uri, bucket, app)
+);
+
+CREATE TABLE IF NOT EXISTS hits_hour
+(
+    app varchar(64) NOT NULL,
+    uri varchar(128) NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    hits BIGINT NOT NULL,
+    PRIMARY KEY (uri, bucket, app)
+);
+
+CREATE TABLE IF NOT EXISTS hits_day
+(
+    app varchar(64) NOT NULL,
+    uri varchar(128) NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    hits BIGINT NOT NULL,
+    PRIMARY KEY (uri, bucket, app)
+);
+
+CREATE INDEX IF NOT EXISTS hits_minute_bucket_idx ON hits_minute (bucket);
+CREATE INDEX IF NOT EXISTS hits_hour_bucket_idx ON hits_hour (bucket);
+CREATE INDEX IF NOT EXISTS hits_day_bucket_idx ON hits_day (bucket);
+
+CREATE TABLE IF NOT EXISTS hit_ip_sketches
+(
+    app varchar(64) NOT NULL,
+    uri varchar(128) NOT NULL,
+    level varchar(16) NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    registers BYTEA NOT NULL,
+    PRIMARY KEY (uri, level, bucket, app)
+);
+
+CREATE INDEX IF NOT EXISTS hit_ip_sketches_bucket_idx ON hit_ip_sketches (level, bucket);
+
+CREATE TABLE IF NOT EXISTS hit_daily_ips
+(
+    app varchar(64) NOT NULL,
+    uri varchar(128) NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    ip varchar(64) NOT NULL,
+    PRIMARY KEY (uri, bucket, app, ip)
+);
+
+CREATE INDEX IF NOT EXISTS hit_daily_ips_bucket_idx ON hit_daily_ips (bucket);
+
+CREATE TABLE IF NOT EXISTS hits_sampled
+(
+    app varchar(64) NOT NULL,
+    uri varchar(128) NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    dropped BIGINT NOT NULL,
+    rate INTEGER NOT NULL,
+    PRIMARY KEY (uri, bucket, app)
+);
+
+CREATE INDEX IF NOT EXISTS hits_sampled_bucket_idx ON hits_sampled (bucket);
+
+CREATE TABLE IF NOT EXISTS hit_coverage
+(
+    name varchar(32) NOT NULL PRIMARY KEY,
+    since TIMESTAMP NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS hit_apps
+(
+    app_id SMALLINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    name varchar(64) NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS hit_uris
+(
+    uri_id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    uri varchar(128) NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS hits_compact
+(
+    app_id SMALLINT NOT NULL,
+    uri_id INTEGER NOT NULL,
+    ip INET NOT NULL,
+    created TIMESTAMP NOT NULL
+) PARTITION BY RANGE (created);
+
+CREATE INDEX IF NOT EXISTS hits_compact_created_idx ON hits_compact (created);
+CREATE INDEX IF NOT EXISTS hits_compact_uri_created_idx ON hits_compact (uri_id, created);
@@ -0,0 +1,169 @@
+package ru.practicum.cluster;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+import ru.practicum.HitInputDto;
+import ru.practicum.HitOutputDto;
+import ru.practicum.HitQueryDto;
+import ru.practicum.StatsServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Три узла на случайных портах, каждый со своей базой H2: просмотры, отправленные одному узлу, должны оказаться
+ * у владельцев uri, а статистика с любого узла — быть суммой шардов.
+ */
+class ClusterIntegrationTest {
+    private static final int NODES = 3;
+    private static final int URIS = 30;
+    private static final LocalDateTime TIMESTAMP = LocalDateTime.of(2024, 1, 1, 12, 0);
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final ParameterizedTypeReference<List<HitOutputDto>> HIT_STATS =
+            new ParameterizedTypeReference<>() {
+            };
+    private static final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+    private static final List<String> nodes = new ArrayList<>();
+    private static final RestTemplate rest = new RestTemplate();
+
+    @BeforeAll
+    static void startCluster() throws IOException {
+        for (int i = 0; i < NODES; i++) {
+            nodes.add("http://localhost:" + freePort());
+        }
+        for (int i = 0; i < NODES; i++) {
+            contexts.add(new SpringApplicationBuilder(StatsServer.class)
+                    .profiles("test")
+                    .run("--server.port=" + URI.create(nodes.get(i)).getPort(),
+                            "--spring.datasource.url=jdbc:h2:mem:cluster" + i + ";DB_CLOSE_DELAY=-1",
+                            "--stats.cluster.nodes=" + String.join(",", nodes),
+                            "--stats.cluster.self=" + i));
+        }
+        List<HitInputDto> hits = new ArrayList<>();
+        for (int i = 0; i < URIS; i++) {
+            for (int j = 0; j <= i; j++) {
+                hits.add(HitInputDto.builder()
+                        .app("ewm-main-service")
+                        .uri(uri(i))
+                        .ip("10.0.0." + j)
+                        .timestamp(TIMESTAMP)
+                        .build());
+            }
+        }
+        rest.postForEntity(nodes.get(0) + "/hits/batch", hits, Void.class);
+    }
+
+    @AfterAll
+    static void stopCluster() {
+        contexts.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    void storesHitsOnUriOwners() {
+        ShardMap shardMap = contexts.get(0).getBean(ShardMap.class);
+        for (int shard = 0; shard < NODES; shard++) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(ShardClient.FORWARDED_HEADER, "true");
+            List<HitOutputDto> hitStats = rest.exchange(statsUri(shard, allUris()), HttpMethod.GET,
+                    new HttpEntity<>(headers), HIT_STATS).getBody();
+            int owner = shard;
+            List<HitOutputDto> expected = expected().stream()
+                    .filter(hitStat -> shardMap.owner(hitStat.getUri()) == owner)
+                    .collect(Collectors.toList());
+
+            assertThat(expected).isNotEmpty();
+            assertThat(hitStats).usingRecursiveFieldByFieldElementComparator().isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void mergesStatsFromEveryShard() {
+        for (int node = 0; node < NODES; node++) {
+            List<HitOutputDto> hitStats = rest.exchange(statsUri(node, allUris()), HttpMethod.GET, null, HIT_STATS)
+                    .getBody();
+            List<HitOutputDto> streamed = rest.exchange(statsUri(node, null), HttpMethod.GET, null, HIT_STATS)
+                    .getBody();
+
+            assertThat(hitStats).usingRecursiveFieldByFieldElementComparator().isEqualTo(expected());
+            assertThat(streamed).usingRecursiveFieldByFieldElementComparator().isEqualTo(expected());
+        }
+    }
+
+    @Test
+    void pagesMergedStatsWithCursor() {
+        HitQueryDto query = HitQueryDto.builder()
+                .start(TIMESTAMP.minusDays(1))
+                .end(TIMESTAMP.plusDays(1))
+                .limit(7)
+                .build();
+        List<HitOutputDto> hitStats = new ArrayList<>();
+        int pages = 0;
+        while (true) {
+            ResponseEntity<List<HitOutputDto>> response = rest.exchange(nodes.get(1) + "/stats/query",
+                    HttpMethod.POST, new HttpEntity<>(query), HIT_STATS);
+            hitStats.addAll(response.getBody());
+            pages++;
+            String cursor = response.getHeaders().getFirst(HitQueryDto.NEXT_CURSOR_HEADER);
+            if (cursor == null) {
+                break;
+            }
+            query = query.toBuilder().cursor(cursor).build();
+        }
+
+        assertThat(pages).isEqualTo(5);
+        assertThat(hitStats).usingRecursiveFieldByFieldElementComparator().isEqualTo(expected());
+    }
+
+    private static List<HitOutputDto> expected() {
+        return IntStream.range(0, URIS)
+                .mapToObj(i -> new HitOutputDto("ewm-main-service", uri(i), (long) i + 1))
+                .sorted(Comparator.comparing(HitOutputDto::getHits).reversed())
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> allUris() {
+        return IntStream.range(0, URIS)
+                .mapToObj(ClusterIntegrationTest::uri)
+                .collect(Collectors.toList());
+    }
+
+    private static URI statsUri(int node, List<String> uris) {
+        UriComponentsBuilder uri = UriComponentsBuilder.fromHttpUrl(nodes.get(node) + "/stats")
+                .queryParam("start", TIMESTAMP.minusDays(1).format(FORMATTER))
+                .queryParam("end", TIMESTAMP.plusDays(1).format(FORMATTER));
+        if (uris != null) {
+            uri.queryParam("uris", uris.toArray());
+        }
+        return uri.encode().build().toUri();
+    }
+
+    private static String uri(int i) {
+        return "/events/" + (i + 1);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}